@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes synthetic input files with a configurable operation mix and pdf size distribution.
+ * The pdfs are generated once per kind and served by a PdfServer. Every line gets a unique url,
+ * so the results of the lines can be told apart, except for the share of lines given as duplicates,
+ * which reuse the url of an earlier line, to exercise the dedupe, grouping and result cache of the pipeline.
+ */
+public class InputGenerator {
+
+    private static class Weighted<T> {
+        final T value;
+        final int weight;
+
+        Weighted(T value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private final List<Weighted<PDFOperationType>> operations = new ArrayList<>();
+    private final List<Weighted<String>> pdfs = new ArrayList<>();
+    private final PdfServer server;
+    private final Random random;
+    private final double duplicates;
+
+    /**
+     * @param mix        operation weights, e.g. "TOIMAGE:1,TOHTML:1,TOTEXT:2"
+     * @param sizes      pdf kinds and weights, as kind-pages:weight (see SyntheticPdfs.byName),
+     *                   e.g. "text-1:6,text-20:3,image-5:1"
+     * @param duplicates share of the lines, between 0 and 1, that reuse the url of an earlier line
+     *                   with an operation picked from the mix, so some repeat a whole line
+     */
+    public InputGenerator(PdfServer server, String mix, String sizes, double duplicates, long seed) throws IOException {
+        if (duplicates < 0 || duplicates > 1)
+            throw new IllegalArgumentException("duplicates must be between 0 and 1: " + duplicates);
+        this.server = server;
+        this.random = new Random(seed);
+        this.duplicates = duplicates;
+        for (String entry : mix.split(",")) {
+            String[] opWeight = entry.trim().split(":");
+            operations.add(new Weighted<>(PDFOperationType.valueOf(opWeight[0].toUpperCase()), Integer.parseInt(opWeight[1])));
+        }
+        for (String entry : sizes.split(",")) {
+            String[] kindWeight = entry.trim().split(":");
+            String name = kindWeight[0];
+            server.add(name, SyntheticPdfs.byName(name, seed));
+            pdfs.add(new Weighted<>(name, Integer.parseInt(kindWeight[1])));
+        }
+    }
+
+    /**
+     * Write an input file of numOfLines tasks
+     */
+    public void write(Path inputFile, int numOfLines) throws IOException {
+        List<String> urls = new ArrayList<>();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(inputFile, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < numOfLines; i++) {
+                String url;
+                if (!urls.isEmpty() && random.nextDouble() < duplicates) {
+                    url = urls.get(random.nextInt(urls.size()));
+                } else {
+                    url = server.url(pick(pdfs)) + "?i=" + i;
+                    urls.add(url);
+                }
+                writer.println(pick(operations).name() + "\t" + url);
+            }
+        }
+    }
+
+    private <T> T pick(List<Weighted<T>> options) {
+        int total = options.stream().mapToInt(option -> option.weight).sum();
+        int roll = random.nextInt(total);
+        for (Weighted<T> option : options) {
+            roll -= option.weight;
+            if (roll < 0)
+                return option.value;
+        }
+        return options.get(options.size() - 1).value;
+    }
+}
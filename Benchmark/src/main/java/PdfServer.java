@@ -0,0 +1,62 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves in-memory pdfs over http on a local port, as stand-ins for the remote pdfs of real input files.
+ * A pdf registered as "name" is served under /pdf/name.pdf, any query string is ignored.
+ */
+public class PdfServer implements AutoCloseable {
+    private static final String PREFIX = "/pdf/";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> pdfs = new ConcurrentHashMap<>();
+
+    public PdfServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(PREFIX, this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void add(String name, byte[] pdf) {
+        pdfs.put(name, pdf);
+    }
+
+    /**
+     * @return the url the pdf is served under
+     */
+    public String url(String name) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + PREFIX + name + ".pdf";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String name = path.substring(PREFIX.length(), path.length() - ".pdf".length());
+        byte[] pdf = pdfs.get(name);
+        if (pdf == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/pdf");
+        exchange.sendResponseHeaders(200, pdf.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(pdf);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
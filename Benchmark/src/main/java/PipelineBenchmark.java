@@ -0,0 +1,52 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * End-to-end benchmark of the LocalApp -> Manager -> Worker pipeline.
+ * Runs the whole pipeline in this process on the local transport, over a synthetic input file whose pdfs
+ * are served from a local http server, and reports pdfs/sec, task latency percentiles, stage durations
+ * and the metrics the manager and workers recorded.
+ * <p>
+ * Configured with system properties:
+ * bench.pdfs (100), bench.mix ("TOIMAGE:1,TOHTML:1,TOTEXT:1"), bench.sizes ("text-1:6,text-20:3,image-5:1"),
+ * bench.msgsPerWorker (25), bench.duplicates (0, the share of lines that reuse an earlier url) and bench.seed (42). Any other property, like sqs.delaySeconds, is passed through.
+ * The worker result cache is off unless -Dworker.resultCache=true is given.
+ */
+public class PipelineBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numOfPdfs = Integer.getInteger("bench.pdfs", 100);
+        String mix = System.getProperty("bench.mix", "TOIMAGE:1,TOHTML:1,TOTEXT:1");
+        String sizes = System.getProperty("bench.sizes", "text-1:6,text-20:3,image-5:1");
+        int msgsPerWorker = Integer.getInteger("bench.msgsPerWorker", 25);
+        double duplicates = Double.parseDouble(System.getProperty("bench.duplicates", "0"));
+        long seed = Long.getLong("bench.seed", 42);
+
+        Path workDir = Files.createTempDirectory("dsp-bench");
+        // Must be set before the Transport class is first used.
+        System.setProperty("transport", "local");
+        // Every line has its own url but the same few pdfs, which the result cache would collapse.
+        if (System.getProperty("worker.resultCache") == null)
+            System.setProperty("worker.resultCache", "false");
+        if (System.getProperty("transport.localDir") == null)
+            System.setProperty("transport.localDir", workDir.resolve("blobs").toString());
+
+        try (PdfServer server = new PdfServer()) {
+            Path inputFile = workDir.resolve("input.txt");
+            new InputGenerator(server, mix, sizes, duplicates, seed).write(inputFile, numOfPdfs);
+            StageRecorder recorder = new StageRecorder();
+            ((InMemoryQueueService) Transport.queues()).setListener(recorder);
+
+            System.out.println("running " + numOfPdfs + " pdfs, mix " + mix + ", sizes " + sizes
+                    + ", " + duplicates + " duplicates, " + msgsPerWorker + " msgs per worker, work dir " + workDir);
+            long start = System.currentTimeMillis();
+            LocalApplication.main(new String[]{inputFile.toString(), workDir.resolve("output").toString(),
+                    String.valueOf(msgsPerWorker), "true"});
+            long end = System.currentTimeMillis();
+            recorder.report(numOfPdfs, start, end, System.out);
+            System.out.println("metrics:");
+            System.out.print(Metrics.snapshot());
+        }
+        System.exit(0);
+    }
+}
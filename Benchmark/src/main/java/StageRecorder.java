@@ -0,0 +1,119 @@
+import software.amazon.awssdk.services.sqs.model.Message;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records when each task is enqueued, picked up by a worker and answered, by watching the in-memory queues.
+ * Tasks and results are matched by their pdf url, which the input generator makes unique per line
+ * unless asked for duplicates; the lines that share a url are then timed as one task.
+ */
+public class StageRecorder implements InMemoryQueueService.Listener {
+    private static final String TASKS_Q = "TasksQueue";
+    private static final String RESULTS_Q_PREFIX = "TasksResultsQ";
+    private static final String SUMMARY_Q_PREFIX = "Manager_Local_Queue";
+
+    private static class TaskTimes {
+        volatile long enqueued;
+        volatile long received;
+        volatile long answered;
+    }
+
+    private final Map<String, TaskTimes> tasks = new ConcurrentHashMap<>();
+    private volatile long summarySent;
+
+    @Override
+    public void onSend(String qName, String body, long timeMillis) {
+        if (qName.equals(TASKS_Q)) {
+            times(url(body)).enqueued = timeMillis;
+        } else if (qName.startsWith(RESULTS_Q_PREFIX)) {
+            for (String line : body.split("\n")) {
+                times(url(line)).answered = timeMillis;
+            }
+        } else if (qName.startsWith(SUMMARY_Q_PREFIX)) {
+            summarySent = timeMillis;
+        }
+    }
+
+    @Override
+    public void onReceive(String qName, Message message, long timeMillis) {
+        if (qName.equals(TASKS_Q)) {
+            TaskTimes times = times(url(message.body()));
+            if (times.received == 0)
+                times.received = timeMillis;
+        }
+    }
+
+    private TaskTimes times(String url) {
+        return tasks.computeIfAbsent(url, key -> new TaskTimes());
+    }
+
+    /**
+     * @return the pdf url, the second token of both task and result messages
+     */
+    private static String url(String body) {
+        String[] tokens = body.trim().split("\\s+");
+        return tokens.length > 1 ? tokens[1] : "";
+    }
+
+    /**
+     * Print throughput, latency percentiles and stage durations of a run
+     *
+     * @param start when the local app was started
+     * @param end   when the local app finished writing the output file
+     */
+    public void report(int numOfPdfs, long start, long end, PrintStream out) {
+        List<Long> latency = new ArrayList<>();
+        List<Long> queueWait = new ArrayList<>();
+        List<Long> service = new ArrayList<>();
+        long firstEnqueued = Long.MAX_VALUE;
+        long lastEnqueued = 0;
+        long lastAnswered = 0;
+        for (TaskTimes times : tasks.values()) {
+            if (times.enqueued == 0 || times.answered == 0)
+                continue;
+            latency.add(times.answered - times.enqueued);
+            if (times.received != 0) {
+                queueWait.add(times.received - times.enqueued);
+                service.add(times.answered - times.received);
+            }
+            firstEnqueued = Math.min(firstEnqueued, times.enqueued);
+            lastEnqueued = Math.max(lastEnqueued, times.enqueued);
+            lastAnswered = Math.max(lastAnswered, times.answered);
+        }
+        double seconds = (end - start) / 1000.0;
+        out.println("pdfs:                " + numOfPdfs + " (" + latency.size() + " answered)");
+        out.println("wall time:           " + seconds + " s");
+        out.printf("throughput:          %.2f pdfs/s%n", numOfPdfs / seconds);
+        printPercentiles(out, "task latency", latency);
+        printPercentiles(out, "  queue wait", queueWait);
+        printPercentiles(out, "  worker service", service);
+        if (latency.isEmpty())
+            return;
+        out.println("stages (ms):");
+        out.println("  upload & startup   " + (firstEnqueued - start));
+        out.println("  enqueue            " + (lastEnqueued - firstEnqueued));
+        out.println("  processing         " + (lastAnswered - firstEnqueued));
+        out.println("  summary            " + (summarySent - lastAnswered));
+        out.println("  output file        " + (end - summarySent));
+    }
+
+    private static void printPercentiles(PrintStream out, String name, List<Long> values) {
+        if (values.isEmpty()) {
+            out.println(name + ": no samples");
+            return;
+        }
+        Collections.sort(values);
+        out.printf("%-20s p50 %d ms, p95 %d ms, p99 %d ms, max %d ms%n", name + ":",
+                percentile(values, 50), percentile(values, 95), percentile(values, 99), values.get(values.size() - 1));
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+}
@@ -0,0 +1,111 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates pdfs for the benchmarks, so no sample corpus has to be downloaded.
+ */
+public class SyntheticPdfs {
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "magna"};
+    private static final int LINES_PER_PAGE = 45;
+    private static final int WORDS_PER_LINE = 12;
+
+    /**
+     * @param name kind-pages, where kind is text (text only pages), image (a small scan on every page)
+     *             or scan (a 300 DPI A4 scan on every page), e.g. "text-20"
+     */
+    public static byte[] byName(String name, long seed) throws IOException {
+        String[] kindPages = name.split("-");
+        int pages = Integer.parseInt(kindPages[1]);
+        switch (kindPages[0]) {
+            case "text":
+                return textPdf(pages, seed);
+            case "image":
+                return imagePdf(pages, 1240, 1754, seed);
+            case "scan":
+                return imagePdf(pages, 2480, 3508, seed);
+            default:
+                throw new IllegalArgumentException("unknown pdf kind: " + name);
+        }
+    }
+
+    /**
+     * @return a pdf of pages full of text
+     */
+    public static byte[] textPdf(int pages, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 10);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 780);
+                    for (int l = 0; l < LINES_PER_PAGE; l++) {
+                        content.showText(randomLine(random));
+                        content.newLine();
+                    }
+                    content.endText();
+                }
+            }
+            return save(document);
+        }
+    }
+
+    /**
+     * @return a pdf of pages that each hold a full page noisy image, like a scanned document
+     */
+    public static byte[] imagePdf(int pages, int imageWidth, int imageHeight, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (PDDocument document = new PDDocument()) {
+            for (int p = 0; p < pages; p++) {
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                PDImageXObject image = LosslessFactory.createFromImage(document, noise(imageWidth, imageHeight, random));
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.drawImage(image, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+                }
+            }
+            return save(document);
+        }
+    }
+
+    private static String randomLine(Random random) {
+        StringBuilder line = new StringBuilder();
+        for (int w = 0; w < WORDS_PER_LINE; w++) {
+            line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return line.toString();
+    }
+
+    private static BufferedImage noise(int width, int height, Random random) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Smooth gradient plus a little noise, so the image compresses like a real scan.
+                int base = (x * 255 / width + y * 255 / height) / 2;
+                int gray = Math.min(255, Math.max(0, base + random.nextInt(32) - 16));
+                image.setRGB(x, y, gray << 16 | gray << 8 | gray);
+            }
+        }
+        return image;
+    }
+
+    private static byte[] save(PDDocument document) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.save(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the TOIMAGE path (load + Utils.writeImage) by resolution and color type.
+ * The worker renders at 300 DPI, RGB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageConversionBenchmark {
+
+    @Param({"72", "150", "300"})
+    public int dpi;
+
+    @Param({"RGB", "GRAY"})
+    public ImageType imageType;
+
+    @Benchmark
+    public long toImage(PdfCorpus corpus) throws IOException {
+        PdfCorpus.CountingSink out = new PdfCorpus.CountingSink();
+        try (PDDocument document = corpus.load()) {
+            WorkerCode.writeImage(document, out, dpi, imageType);
+        }
+        return out.count;
+    }
+}
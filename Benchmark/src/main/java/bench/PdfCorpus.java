@@ -0,0 +1,105 @@
+package bench;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * The document under test and how PDFBox buffers it while parsing.
+ * <p>
+ * pdf is either "sample", the small text pdf bundled with the project, or a synthetic pdf by kind-pages
+ * (see SyntheticPdfs.byName): text-200 is a large text document, scan-10 a large scanned one and
+ * image-20 an image heavy one.
+ * memory is heap (all in memory, what the worker does for small pdfs), mixed (heap up to 16MB, then
+ * a temp file, what the worker does for large ones) or tempfile (temp file only).
+ */
+@State(Scope.Benchmark)
+public class PdfCorpus {
+    private static final long SEED = 42;
+    private static final long MIXED_HEAP_LIMIT = 16 * 1024 * 1024;
+
+    @Param({"sample", "text-200", "scan-10", "image-20"})
+    public String pdf;
+
+    @Param({"heap", "mixed", "tempfile"})
+    public String memory;
+
+    private byte[] bytes;
+    private Path tempDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        bytes = pdf.equals("sample") ? readSample() : WorkerCode.syntheticPdf(pdf, SEED);
+        tempDir = Files.createTempDirectory("jmh-pdfbox");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Parse the pdf, the way every worker task starts.
+     */
+    public PDDocument load() throws IOException {
+        return PDDocument.load(bytes, "", null, null, memoryUsageSetting());
+    }
+
+    private MemoryUsageSetting memoryUsageSetting() {
+        switch (memory) {
+            case "heap":
+                return MemoryUsageSetting.setupMainMemoryOnly();
+            case "mixed":
+                return MemoryUsageSetting.setupMixed(MIXED_HEAP_LIMIT).setTempDir(tempDir.toFile());
+            case "tempfile":
+                return MemoryUsageSetting.setupTempFileOnly().setTempDir(tempDir.toFile());
+            default:
+                throw new IllegalArgumentException("unknown memory setting: " + memory);
+        }
+    }
+
+    private static byte[] readSample() throws IOException {
+        try (InputStream in = PdfCorpus.class.getResourceAsStream("/corpus/sample.pdf")) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Discards the converted output, counting it so the work cannot be optimized away.
+     */
+    static class CountingSink extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.tools.PDFText2HTML;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the TOTEXT and TOHTML paths (load + Utils.writeText), with a fresh stripper per
+ * document, as the worker does, against one stripper reused by the thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TextConversionBenchmark {
+
+    @State(Scope.Thread)
+    public static class Strippers {
+        PDFTextStripper text;
+        PDFText2HTML html;
+
+        @Setup
+        public void setUp() throws IOException {
+            text = new PDFTextStripper();
+            html = new PDFText2HTML();
+        }
+    }
+
+    @Benchmark
+    public long toText(PdfCorpus corpus) throws IOException {
+        return convert(corpus, new PDFTextStripper());
+    }
+
+    @Benchmark
+    public long toTextReusedStripper(PdfCorpus corpus, Strippers strippers) throws IOException {
+        return convert(corpus, strippers.text);
+    }
+
+    @Benchmark
+    public long toHtml(PdfCorpus corpus) throws IOException {
+        return convert(corpus, new PDFText2HTML());
+    }
+
+    @Benchmark
+    public long toHtmlReusedStripper(PdfCorpus corpus, Strippers strippers) throws IOException {
+        return convert(corpus, strippers.html);
+    }
+
+    private static long convert(PdfCorpus corpus, PDFTextStripper stripper) throws IOException {
+        PdfCorpus.CountingSink out = new PdfCorpus.CountingSink();
+        try (PDDocument document = corpus.load()) {
+            WorkerCode.writeText(document, out, stripper);
+        }
+        return out.count;
+    }
+}
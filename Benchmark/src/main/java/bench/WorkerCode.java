@@ -0,0 +1,79 @@
+package bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * JMH does not accept benchmarks in the default package, and classes in a named package cannot
+ * reference the worker's classes, which live in the default package. This binds the few methods the
+ * benchmarks need once, so every benchmark still runs the worker's own code.
+ */
+final class WorkerCode {
+    private static final MethodHandle WRITE_IMAGE;
+    private static final MethodHandle WRITE_TEXT;
+    private static final MethodHandle SYNTHETIC_PDF;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> utils = Class.forName("Utils");
+            WRITE_IMAGE = lookup.findStatic(utils, "writeImage", MethodType.methodType(void.class,
+                    PDDocument.class, OutputStream.class, int.class, ImageType.class));
+            WRITE_TEXT = lookup.findStatic(utils, "writeText", MethodType.methodType(void.class,
+                    PDDocument.class, OutputStream.class, PDFTextStripper.class));
+            SYNTHETIC_PDF = lookup.findStatic(Class.forName("SyntheticPdfs"), "byName",
+                    MethodType.methodType(byte[].class, String.class, long.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private WorkerCode() {
+    }
+
+    /**
+     * Utils.writeImage(document, out, dpi, imageType)
+     */
+    static void writeImage(PDDocument document, OutputStream out, int dpi, ImageType imageType) throws IOException {
+        try {
+            WRITE_IMAGE.invokeExact(document, out, dpi, imageType);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Utils.writeText(document, out, stripper)
+     */
+    static void writeText(PDDocument document, OutputStream out, PDFTextStripper stripper) throws IOException {
+        try {
+            WRITE_TEXT.invokeExact(document, out, stripper);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * SyntheticPdfs.byName(name, seed)
+     */
+    static byte[] syntheticPdf(String name, long seed) throws IOException {
+        try {
+            return (byte[]) SYNTHETIC_PDF.invokeExact(name, seed);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+}
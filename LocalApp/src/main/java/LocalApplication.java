@@ -1,15 +1,19 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
-import software.amazon.awssdk.services.sqs.model.SqsException;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,22 +21,26 @@ public class LocalApplication {
     private final static Logger log = LoggerFactory.getLogger(LocalApplication.class);
     private final static String LocalManagerQName = "Local_Manager_Queue";
     private final static String LocalAppId = String.valueOf(System.currentTimeMillis());
+    // "partial firstLine url", announcing a part of the summary before the whole of it is ready
+    private final static String PARTIAL_SUMMARY_PREFIX = "partial ";
 
     public static void main(String[] args) throws InterruptedException, IOException {
 
         String input_file_path = args[0]; // input file path
         String output_file_name = args[1]; // output file path
         int numOfPdfPerWorker = Integer.parseInt(args[2]); // n - work per worker
-        boolean terminate = args.length == 4 && Boolean.parseBoolean(args[3]); // terminate?
+        boolean terminate = args.length >= 4 && Boolean.parseBoolean(args[3]); // terminate?
+        String imageOptions = args.length >= 5 ? args[4] : ""; // render options for the job's TOIMAGE tasks
 
         // ---- Upload input file to s3 ----
         String inputFileKey = LocalAppId + "/" + "inputFile" + LocalAppId;
-        S3Utils.uploadFile(input_file_path, inputFileKey, S3Utils.PRIVATE_BUCKET);
+        Transport.blobs().ensureBucket(S3Utils.PRIVATE_BUCKET);
+        Transport.blobs().uploadFile(new File(input_file_path), S3Utils.PRIVATE_BUCKET, inputFileKey);
         String fileUrl = S3Utils.getFileUrl(inputFileKey);
         log.info("Input file successfully uploaded here: {}", fileUrl);
 
         // ---- Upload first message to sqs
-        sendNewTask(numOfPdfPerWorker, fileUrl);
+        sendNewTask(numOfPdfPerWorker, fileUrl, imageOptions);
 
         // ---- Create Manager Instance
         setupManager();
@@ -45,104 +53,114 @@ public class LocalApplication {
     private static void handleSummaryMsg(String output_file_name, boolean terminate) throws InterruptedException, IOException {
         log.debug("building manager < -- > local queue");
         String managerLocalQName = "Manager_Local_Queue" + LocalAppId;
-        SQSUtils.buildQueueIfNotExists(managerLocalQName);
+        Transport.queues().buildQueueIfNotExists(managerLocalQName);
         log.info("Waiting for a summary...");
-        String summaryMessage;
-        Message sMessage;
-        while (true) {
-            try {
-                sMessage = SQSUtils.recieveMSG(managerLocalQName);
-                if (sMessage != null) {
-                    summaryMessage = sMessage.body();
-                    if (summaryMessage != null)
-                        break;
+        SQSPoller poller = new SQSPoller(managerLocalQName);
+        // Partial summaries by their first line, rendered once all the lines before them are
+        int renderedLines = 0;
+        TreeMap<Integer, String> partials = new TreeMap<>();
+        try (Writer outputFile = new BufferedWriter(new FileWriter(output_file_name + ".html"))) {
+            outputFile.write("<!DOCTYPE html>\n<html>\n<body>\n");
+            while (true) {
+                Message sMessage = poller.pollOne();
+                if (sMessage == null || sMessage.body() == null)
+                    continue;
+                String summaryMessage = sMessage.body();
+                Transport.queues().deleteMSG(sMessage, managerLocalQName);
+                if (summaryMessage.startsWith(PARTIAL_SUMMARY_PREFIX)) {
+                    String[] partial = summaryMessage.split("\\s+", 3);
+                    partials.put(Integer.parseInt(partial[1]), partial[2]);
+                    while (partials.containsKey(renderedLines)) {
+                        String partialUrl = partials.remove(renderedLines);
+                        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Transport.blobs()
+                                .getObjectStream(extractKey(partialUrl), extractBucket(partialUrl)), StandardCharsets.UTF_8))) {
+                            renderedLines += writeOutputLines(reader, outputFile, 0);
+                        }
+                    }
+                    outputFile.flush();
+                    log.info("Got partial summary, {} results so far", renderedLines);
+                    continue;
                 }
-            } catch (SqsException | SdkClientException sqsExecption) {
-                log.error("LocalApplication.main(): got SqsException... " + sqsExecption.getMessage() +
-                        "\nsleeping & retrying!");
-                Thread.sleep(1000);
+                log.debug("made {} empty receives while waiting for the summary", poller.getEmptyReceives());
+                log.info("Got summary file. Creating output file");
+                String summaryBucket = extractBucket(summaryMessage);
+                String summaryKey = extractKey(summaryMessage);
+                Transport.blobs().getObjectToLocal(summaryKey, summaryBucket, "summaryFile" + LocalAppId + ".txt");
+                try (BufferedReader reader = new BufferedReader(new FileReader("summaryFile" + LocalAppId + ".txt"))) {
+                    // The lines of the partial summaries come first in it, and are already rendered.
+                    writeOutputLines(reader, outputFile, renderedLines);
+                }
+                break;
             }
+            //Add html epilogue
+            outputFile.write("</body>\n</html>");
         }
-        SQSUtils.deleteMSG(sMessage, managerLocalQName);
-        log.info("Got summary file. Creating output file");
-        String summaryBucket = extractBucket(summaryMessage);
-        String summaryKey = extractKey(summaryMessage);
-        S3Utils.getObjectToLocal(summaryKey, summaryBucket, "summaryFile" + LocalAppId + ".txt");
-        makeOutputFile("summaryFile" + LocalAppId + ".txt", output_file_name);
+        log.debug("Finish making summary file.");
         log.debug("deleting Local app Q's");
         deleteLocalAppQueues();
         if (terminate) {
-            SQSUtils.sendMSG(LocalManagerQName, "terminate");
+            Transport.queues().sendMSG(LocalManagerQName, "terminate");
             log.debug("Local sent terminate message and finish..deleting local Q's.. Bye");
         }
     }
 
-    private static void sendNewTask(int numOfPdfPerWorker, String fileUrl) {
-        SQSUtils.buildQueueIfNotExists(LocalManagerQName);
-        SQSUtils.sendMSG(LocalManagerQName, fileUrl + " " + numOfPdfPerWorker);
+    private static void sendNewTask(int numOfPdfPerWorker, String fileUrl, String imageOptions) {
+        Transport.queues().buildQueueIfNotExists(LocalManagerQName);
+        String task = fileUrl + " " + numOfPdfPerWorker;
+        if (!imageOptions.isEmpty())
+            task += " " + imageOptions;
+        Transport.queues().sendMSG(LocalManagerQName, task);
         log.info("New task message successfully sent");
     }
 
     private static void setupManager() {
-        if (!EC2Utils.isInstanceRunning("Manager")) {
+        if (!Transport.compute().isInstanceRunning("Manager")) {
             log.info("There is no running manager.. launch manager");
-            String managerScript = createManagerUserData();
-            EC2Utils.createEc2Instance("Manager", managerScript, 1);
+            Transport.compute().launchManager();
             log.info("Manager launched successfully");
         } else log.info("Ec2 manager already running.. ");
     }
 
 
-    private static void makeOutputFile(String fileName, String outputFileName) throws IOException {
-        log.debug("Start making output file.");
-        BufferedReader reader;
-        String line;
+    /**
+     * Render summary lines as html paragraphs
+     *
+     * @param skipLines number of leading lines that were already rendered
+     * @return number of lines read
+     */
+    private static int writeOutputLines(BufferedReader reader, Writer summaryFile, int skipLines) throws IOException {
         String op, inputLink, rest;
-        reader = new BufferedReader(new FileReader(fileName));
-        FileWriter summaryFile = new FileWriter(outputFileName + ".html");
-        summaryFile.write("<!DOCTYPE html>\n<html>\n<body>\n");
-        line = reader.readLine();
+        int numOfLines = 0;
+        String line = reader.readLine();
         while (line != null) {
-            String[] resLine = line.split("\\s+");
-            op = resLine[0];
-            inputLink = resLine[1];
-            rest = String.join(" ", Arrays.copyOfRange(resLine, 2, resLine.length));
-
-            if (conversionSucceeded(rest, S3Utils.PRIVATE_BUCKET)) {
-                summaryFile.write("<p>" + op + " " + inputLink + " " + "<a href=" + rest + ">" + rest + "</a></p>\n");
-            } else {
-                summaryFile.write("<p>" + op + " " + inputLink + " " + rest + "</p>\n");
+            if (numOfLines++ >= skipLines) {
+                String[] resLine = line.split("\\s+");
+                op = resLine[0];
+                inputLink = resLine[1];
+                rest = String.join(" ", Arrays.copyOfRange(resLine, 2, resLine.length));
+
+                if (conversionSucceeded(rest, S3Utils.PRIVATE_BUCKET)) {
+                    summaryFile.write("<p>" + op + " " + inputLink + " " + "<a href=" + rest + ">" + rest + "</a></p>\n");
+                } else {
+                    summaryFile.write("<p>" + op + " " + inputLink + " " + rest + "</p>\n");
+                }
             }
             line = reader.readLine();
-
         }
-        //Add html epilogue
-        summaryFile.write("</body>\n</html>");
-        summaryFile.close();
-        summaryFile.close();
-        reader.close();
-        log.debug("Finish making summary file.");
+        return numOfLines;
     }
 
     public static boolean conversionSucceeded(String link, String bucketName) {
-        String prefix = "https://" + bucketName + ".s3.amazonaws.com";
+        String prefix = Transport.blobs().getObjectUrl(bucketName, "");
         if (link.length() < prefix.length())
             return false;
         return prefix.equals(link.substring(0, prefix.length()));
 
     }
 
-    private static String createManagerUserData() {
-        String script = "#!/bin/bash\n"
-                + "aws s3 cp " + S3Utils.getFileUrl("jars/managerapp") + " /home/ec2-user/Manager.jar\n"
-                + "java -jar /home/ec2-user/Manager.jar " + "\n";
-        log.debug("user data: " + script);
-        return script;
-    }
-
     private static void deleteLocalAppQueues() {
-        SQSUtils.deleteQ("Manager_Local_Queue" + LocalAppId);
-        SQSUtils.deleteQ("TasksResultsQ" + LocalAppId);
+        Transport.queues().deleteQ("Manager_Local_Queue" + LocalAppId);
+        Transport.queues().deleteQ("TasksResultsQ" + LocalAppId);
     }
 
     /**
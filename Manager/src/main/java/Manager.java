@@ -30,39 +30,51 @@ public class Manager {
         // Build Tasks Q
         Map<QueueAttributeName, String> attributes = new HashMap<>();
         attributes.put(QueueAttributeName.VISIBILITY_TIMEOUT, "60");
-        SQSUtils.buildQueueIfNotExists(tasksQName, attributes);
+        Transport.queues().buildQueueIfNotExists(tasksQName, attributes);
         log.debug("Manager build TasksQ - succeed");
+        Transport.blobs().ensureBucket(S3Utils.PRIVATE_BUCKET);
+        Metrics.gauge("manager.runningJobs", () -> pool.getActiveCount());
+        Metrics.start("manager");
 
+        // Keep the workers fleet sized to the tasks backlog of all the jobs.
+        WorkerAutoscaler autoscaler = new WorkerAutoscaler(new WorkerAutoscaler.ApproximateQueueDepth(tasksQName),
+                new WorkerAutoscaler.ProvisionedWorkerFleet(tasksQName, "TasksResultsQ"));
+        autoscaler.start();
+
+        SQSPoller poller = new SQSPoller(sqsName);
         while (true) {
             try {
-                inputMessage = SQSUtils.recieveMSG(sqsName);
+                inputMessage = poller.pollOne();
                 if (inputMessage != null) {
                     // Terminate stay as is, only one send terminate and we done with this.
                     if (inputMessage.body().equals("terminate")) {
                         log.info("manager get terminate message, deleting terminate message");
-                        SQSUtils.deleteMSG(inputMessage, sqsName);
+                        Transport.queues().deleteMSG(inputMessage, sqsName);
                         log.info("waiting for all local apps connections to finish");
                         executor.shutdown();
                         waitExecutorToFinish(executor);
+                        autoscaler.stop();
+                        Metrics.flush();
                         log.info("terminating ec2 instances. ");
-                        EC2Utils.terminateEc2Instances();
+                        Transport.compute().terminateAll();
                         log.info("succeed terminate all ec2 instances, start deleting TasksQueue process");
-                        SQSUtils.deleteQ("TasksQueue");
+                        Transport.queues().deleteQ("TasksQueue");
                         log.info("Deleting Local < -- > Manager Queue..");
-                        SQSUtils.deleteQ("Local_Manager_Queue");
+                        Transport.queues().deleteQ("Local_Manager_Queue");
+                        log.info("Manager made {} empty receives on {}", poller.getEmptyReceives(), sqsName);
                         break;
                     } else if (isS3Message(inputMessage.body())) {
                         int numOfMsgForWorker = extractN(inputMessage);
                         log.info("Manager executing runner with ResultQ: TasksResultsQ" + extractId(inputMessage.body())
                                 + " msgPerWorker: " + numOfMsgForWorker);
                         pool.execute(new ManagerRunner("TasksQueue",
-                                "TasksResultsQ", numOfMsgForWorker, inputMessage.body(), extractId(inputMessage.body())));
-                        SQSUtils.deleteMSG(inputMessage, sqsName);
+                                "TasksResultsQ", numOfMsgForWorker, inputMessage.body(), extractId(inputMessage.body()),
+                                autoscaler));
+                        Transport.queues().deleteMSG(inputMessage, sqsName);
                     }
                 }
             } catch (SqsException sqsExecption) {
-                log.error("Manager.main(): got SqsException... {} sleeping & retrying!", sqsExecption.getMessage());
-                Thread.sleep(1000);
+                poller.backoffAfterFailure(sqsExecption);
             }
         }
 
@@ -1,30 +1,61 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.SqsException;
 
 import java.io.*;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ManagerRunner implements Runnable {
     private final static Logger log = LoggerFactory.getLogger(Manager.class);
+    // Number of distinct tasks read before they are grouped by url and sent, at least a full batch.
+    private static final int GROUP_WINDOW = Math.max(QueueService.MAX_BATCH_SIZE,
+            Integer.getInteger("manager.groupWindow", 100));
+    private static final String OPERATIONS_SEPARATOR = ",";
+    // Typical length of an input line ("ToImage<tab>http://.../file.pdf"), used to estimate the number of tasks.
+    private static final int AVERAGE_INPUT_LINE_BYTES = 75;
 
     private final String tasksQName;
     private final int numOfMsgForWorker;
     private final String inputMessage;
     private final String workerOutputQName;
     private final String id;
+    private final WorkerAutoscaler autoscaler;
+    // Render options ("dpi=72;format=jpeg") the job asked for, applied to its TOIMAGE lines that have none.
+    private final String imageOptions;
+    // Identical (operation, url) lines of the input are sent as a single task. The summary still gets
+    // a line per input line, in input order: the spill holds the task of every line, and the key and result
+    // of every task, on local disk. It finds a task by its key through a table of key hashes kept in memory,
+    // which still grows with the number of distinct tasks, by about 24 bytes each.
+    private TaskSpill spill;
+    // Tasks of a message whose send threw: it may have reached the queue, so a result for them is taken
+    // if it comes, but not waited for.
+    private final BitSet unconfirmed = new BitSet();
+    private int numOfLines;
+    private int delegated;
+    private int sentMessages;
+    // Why the input could not be read to its end, null if it was.
+    private String inputTruncated;
 
-    public ManagerRunner(String tasksQName, String workerOutputQ, int numOfMsgForWorker, String inputMessage, String id) {
+    public ManagerRunner(String tasksQName, String workerOutputQ, int numOfMsgForWorker, String inputMessage, String id,
+                         WorkerAutoscaler autoscaler) {
         this.id = id;
+        this.autoscaler = autoscaler;
         this.tasksQName = tasksQName;
         this.numOfMsgForWorker = numOfMsgForWorker;
         this.inputMessage = inputMessage;
         this.workerOutputQName = workerOutputQ + id;
+        String[] inputTokens = inputMessage.trim().split("\\s+");
+        this.imageOptions = inputTokens.length > 2 ? inputTokens[2] : "";
 
     }
 
@@ -32,82 +63,288 @@ public class ManagerRunner implements Runnable {
     public void run() {
         String inputBucket = extractBucket(inputMessage);
         String inputKey = extractKey(inputMessage);
-        //download input file, Save under "inputFile.txt"
-        S3Utils.getObjectToLocal(inputKey, inputBucket, "inputFile" + id + ".txt");
-        // Create SQS message for each url in the input file.
-        List<String> tasks = createWorkerTasks("inputFile" + id + ".txt");
         // Build Workers output Q
-        SQSUtils.buildQueueIfNotExists(workerOutputQName);
+        Transport.queues().buildQueueIfNotExists(workerOutputQName);
         log.debug("build Workers outputQ succeed");
-        int messageCount = tasks.size();
-        log.debug("numOfMessages: " + messageCount);
-        // Delegate Tasks to workers.
-        for (String task : tasks) {
-            log.debug("task: " + task);
-            SQSUtils.sendMSG(tasksQName, task + " " + id);
+        // Let the autoscaler boot workers for the estimated job size before delegating a single task.
+        int estimatedCount = estimateNumOfTasks(inputKey, inputBucket);
+        autoscaler.registerJob(id, numOfMsgForWorker, estimatedCount);
+        autoscaler.nudge();
+        try (TaskSpill spill = new TaskSpill("manager-" + id + "-")) {
+            this.spill = spill;
+            // Stream the input file from s3 and delegate its tasks to the workers while reading it.
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    Transport.blobs().getObjectStream(inputKey, inputBucket), StandardCharsets.UTF_8))) {
+                delegateWorkerTasks(reader, estimatedCount);
+            } catch (IOException | UncheckedIOException | SdkException ex) {
+                log.error("ManagerRunner failed reading input file, continuing with the delegated tasks. {}", ex.getMessage());
+                inputTruncated = String.valueOf(ex.getMessage());
+            }
+            log.info("ManagerRunner with id: " + id + " read " + numOfLines + " lines, " + spill.getNumOfTasks()
+                    + " distinct tasks");
+            autoscaler.updatePendingTasks(id, 0);
+            log.debug("numOfMessages: " + delegated);
+            log.debug("Delegated all tasks to workers, now waiting for them to finish..");
+            log.info("Start making summary file.. ");
+            makeAndUploadSummaryFile(delegated);
+        } catch (IOException ex) {
+            log.error("ManagerRunner could not create its scratch files. stop running! {}", ex.getMessage());
+        } finally {
+            autoscaler.unregisterJob(id);
         }
-        log.debug("Delegated all tasks to workers, now waiting for them to finish..");
-        log.info("Lunching Workers..");
-        EC2Utils.launchWorkers(messageCount, numOfMsgForWorker, this.tasksQName, "TasksResultsQ");
-        log.info("Finished lunching workers process.");
-        log.info("Start making summary file.. ");
-        makeAndUploadSummaryFile(messageCount);
         log.info("finish make and upload summary file");
         log.info("ManagerRunner with id: " + id + " exited!");
     }
 
+    /**
+     * Send the distinct tasks of the input to the workers as soon as the lines are read, a window at a time.
+     * The tasks of a window that share a url go in a single message, "TOTEXT,TOIMAGE url id", so the pdf is
+     * downloaded and parsed once for all of them.
+     * The autoscaler already counts the estimated number of lines as pending tasks. After each window it is
+     * told how many distinct tasks are still to come, going by the share of distinct tasks among the lines
+     * read so far, and how many tasks the sent messages carry on average.
+     *
+     * @param reader         input file lines
+     * @param estimatedCount number of tasks the job was registered with
+     */
+    private void delegateWorkerTasks(BufferedReader reader, int estimatedCount) throws IOException {
+        // url -> operations, in order of first appearance
+        Map<String, List<String>> window = new LinkedHashMap<>();
+        int windowTasks = 0;
+        boolean nudged = estimatedCount > 0;
+        String line = reader.readLine();
+        while (line != null) {
+            if (!line.trim().isEmpty()) {
+                log.debug("task: " + line);
+                String task = applyImageOptions(line.trim());
+                String key = taskKey(task);
+                int taskId = spill.findTask(key);
+                if (taskId < 0) {
+                    taskId = spill.addTask(key);
+                    String[] operationUrlPair = task.split("\\s+");
+                    // A line without a url is never sent, and is reported as invalid in the summary.
+                    if (operationUrlPair.length > 1) {
+                        window.computeIfAbsent(operationUrlPair[1], url -> new ArrayList<>()).add(operationUrlPair[0]);
+                        windowTasks++;
+                    }
+                }
+                spill.addLine(taskId);
+                numOfLines++;
+            }
+            line = reader.readLine();
+            if (windowTasks >= GROUP_WINDOW || (line == null && windowTasks > 0)) {
+                delegateWindow(window);
+                window.clear();
+                windowTasks = 0;
+                int linesToCome = Math.max(0, estimatedCount - numOfLines);
+                autoscaler.updatePendingTasks(id, (int) ((long) linesToCome * spill.getNumOfTasks() / numOfLines));
+                if (sentMessages > 0)
+                    autoscaler.updateTasksPerMessage(id, (double) delegated / sentMessages);
+                if (!nudged && delegated > 0) {
+                    // Without an estimate, get the workers going as soon as the first tasks are out.
+                    autoscaler.nudge();
+                    nudged = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send the tasks of a window, a batch at a time. Tasks that could not be sent keep no result, and are
+     * reported as undelivered in the summary; a failing batch does not stop the rest of the input.
+     */
+    private void delegateWindow(Map<String, List<String>> window) throws IOException {
+        List<String> messages = new ArrayList<>(window.size());
+        for (Map.Entry<String, List<String>> urlOperations : window.entrySet()) {
+            messages.add(String.join(OPERATIONS_SEPARATOR, urlOperations.getValue()) + "\t" + urlOperations.getKey()
+                    + " " + id);
+        }
+        int numOfTasks = 0;
+        for (int from = 0; from < messages.size(); from += QueueService.MAX_BATCH_SIZE) {
+            List<String> batch = messages.subList(from, Math.min(from + QueueService.MAX_BATCH_SIZE, messages.size()));
+            try {
+                List<String> failed = Transport.queues().sendMSGs(tasksQName, batch);
+                numOfTasks += countOperations(batch) - countOperations(failed);
+                sentMessages += batch.size() - failed.size();
+            } catch (SqsException | SdkClientException ex) {
+                log.warn("ManagerRunner with id: " + id + " could not send " + batch.size() + " task messages. {}",
+                        ex.getMessage());
+                for (String message : batch) {
+                    String[] operationsUrl = message.split("\\s+");
+                    for (String operation : operationsUrl[0].split(OPERATIONS_SEPARATOR)) {
+                        unconfirmed.set(spill.findTask(taskKey(operation + " " + operationsUrl[1])));
+                    }
+                }
+            }
+        }
+        delegated += numOfTasks;
+        Metrics.counter("manager.tasks.enqueued", "app", id).add(numOfTasks);
+    }
+
+    private static int countOperations(List<String> messages) {
+        int operations = 0;
+        for (String message : messages) {
+            operations += message.split("\\s+")[0].split(OPERATIONS_SEPARATOR).length;
+        }
+        return operations;
+    }
+
+    /**
+     * @param task a task line or a result message, "OPERATION[;options][:] url ..."
+     * @return the (operation, url) pair of it, with the operation name upper cased as the workers report it
+     */
+    private static String taskKey(String task) {
+        String[] operationUrlPair = task.split("\\s+", 3);
+        String operation = operationUrlPair[0];
+        if (operation.endsWith(":"))
+            operation = operation.substring(0, operation.length() - 1);
+        int options = operation.indexOf(';');
+        operation = options < 0 ? operation.toUpperCase()
+                : operation.substring(0, options).toUpperCase() + operation.substring(options);
+        return operation + " " + (operationUrlPair.length > 1 ? operationUrlPair[1] : "");
+    }
+
+    /**
+     * @return the input line, with the job's render options added to a bare TOIMAGE operation
+     */
+    private String applyImageOptions(String line) {
+        if (imageOptions.isEmpty())
+            return line;
+        String[] operationRest = line.split("\\s+", 2);
+        if (operationRest.length < 2 || !operationRest[0].equalsIgnoreCase("TOIMAGE"))
+            return line;
+        return operationRest[0] + ";" + imageOptions + "\t" + operationRest[1];
+    }
+
+    /**
+     * @return the number of tasks in the input file, estimated from its size. 0 if the size is unknown.
+     */
+    private int estimateNumOfTasks(String inputKey, String inputBucket) {
+        try {
+            long size = Transport.blobs().getObjectSize(inputKey, inputBucket);
+            int estimate = (int) Math.min(Integer.MAX_VALUE, (size + AVERAGE_INPUT_LINE_BYTES - 1) / AVERAGE_INPUT_LINE_BYTES);
+            log.info("ManagerRunner with id: " + id + " estimates " + estimate + " tasks for " + size + " input bytes");
+            return estimate;
+        } catch (RuntimeException ex) {
+            log.warn("ManagerRunner could not get input file size, scaling by the delegated tasks only. {}", ex.getMessage());
+            return 0;
+        }
+    }
 
 
     /**
-     * Make summary file from all workers results and upload to s3 bucket, named "summaryfilebucket"
-     * so in order to make this work there is bucket with this name before the function run
+     * Collect the workers results into the spill, and write the summary file a line per input line in input order,
+     * each line as soon as it and all the lines before it have a result, and publish it once all of them are in.
+     * Tasks without a result are reported as undelivered in their lines. Results of no task of the input follow
+     * the input lines, and then an "INPUT: truncated" line if the input could not be read to its end.
      *
-     * @param numOfMessages number of messages we got
+     * @param numOfMessages number of tasks delegated to the workers
      */
     private void makeAndUploadSummaryFile(int numOfMessages) {
         int leftToRead = numOfMessages;
-        FileWriter summaryFile;
-        String fileLocalPath = "summaryFile" + id + ".txt";
+        String summaryFileKey = this.id + "/" + "summaryFile";
+        SummaryWriter summary = null;
         try {
-            summaryFile = new FileWriter(fileLocalPath);
+            summary = new SummaryWriter(S3Utils.PRIVATE_BUCKET, summaryFileKey, "Manager_Local_Queue" + id);
             log.info("ManagerRunner with id: " + id + " expecting to read: " + numOfMessages + " msgs"
                     + " from Q: " + workerOutputQName);
+            int inputTasks = spill.getNumOfTasks();
+            BitSet completed = new BitSet(inputTasks);
+            SQSPoller poller = new SQSPoller(workerOutputQName);
             while (leftToRead > 0) {
                 try {
-                    Message message = SQSUtils.recieveMSG(workerOutputQName);
-                    if (message != null) {
-                        summaryFile.write(message.body() + '\n');
-                        SQSUtils.deleteMSG(message, workerOutputQName);
-                        leftToRead--;
+                    List<Message> messages = poller.poll(QueueService.MAX_BATCH_SIZE);
+                    for (Message message : messages) {
+                        // The workers batch results, a line each
+                        for (String result : message.body().split("\n")) {
+                            if (result.isEmpty())
+                                continue;
+                            String key = taskKey(result);
+                            int taskId = spill.findTask(key);
+                            if (taskId < 0) {
+                                // Not one of the delegated tasks, so not waited for. Kept as a task without
+                                // lines, written after the input lines.
+                                log.warn("ManagerRunner with id: " + id + " got a result of no task: " + result);
+                                taskId = spill.addTask(key);
+                                completed.set(taskId);
+                                spill.putResult(taskId, result);
+                                countResult(result);
+                            } else if (!completed.get(taskId)) {
+                                completed.set(taskId);
+                                spill.putResult(taskId, result);
+                                countResult(result);
+                                if (!unconfirmed.get(taskId))
+                                    leftToRead--;
+                            }
+                            // else a repeated delivery of a result we already have
+                        }
                     }
+                    Transport.queues().deleteMSGs(messages, workerOutputQName);
+                    writeCompletedLines(summary, completed);
                 } catch (SqsException | SdkClientException sqsEx) {
-                    log.error("ManagerRunner.makeAndUploadSummaryFile(): got SqsException "
-                            + sqsEx.getMessage() + "\nsleeping & retrying");
-                    Thread.sleep(1000);
+                    poller.backoffAfterFailure(sqsEx);
                 }
             }
-            summaryFile.close();
-            log.debug("RunInstancesResponse response finish making summaryFile.. start uploading summary file..");
-            String summaryFileKey = this.id + "/" + "summaryFile";
-            S3Utils.uploadFile(fileLocalPath,
-                    summaryFileKey, S3Utils.PRIVATE_BUCKET);
-
-            log.debug("finish uploading file..put message in sqs ");
-            SQSUtils.sendMSG("Manager_Local_Queue" + id, S3Utils.getFileUrl(summaryFileKey));
-
+            log.info("ManagerRunner with id: " + id + " made " + poller.getEmptyReceives()
+                    + " empty receives on Q: " + workerOutputQName);
+            for (int taskId = spill.peekLine(); taskId >= 0; taskId = spill.peekLine()) {
+                summary.write(completed.get(taskId) ? spill.getResult(taskId)
+                        : buildUndeliveredLine(spill.getKey(taskId)));
+                spill.nextLine();
+            }
+            for (int taskId = completed.nextClearBit(0); taskId < inputTasks;
+                 taskId = completed.nextClearBit(taskId + 1)) {
+                Metrics.counter("manager.tasks.undelivered", "app", id).increment();
+            }
+            for (int taskId = inputTasks; taskId < spill.getNumOfTasks(); taskId++) {
+                summary.write(spill.getResult(taskId));
+            }
+            if (inputTruncated != null)
+                summary.write(buildTruncatedLine());
+            log.debug("finish writing " + summary.getLines() + " summary lines, completing upload..");
+            summary.finish();
         } catch (Exception ex) {
             log.error("ManagerRunner failed to create final summary file. stop running! {}", ex.getMessage());
+            if (summary != null)
+                summary.abort();
         }
-        //delete file
-        File file = new File(fileLocalPath);
-        if (file.delete()) {
-            log.debug("File deleted successfully");
-        } else {
-            log.debug("Failed to delete the file");
+    }
+
+
+    /**
+     * Write the lines that follow the ones already written and have a result, up to the first that has none.
+     */
+    private void writeCompletedLines(SummaryWriter summary, BitSet completed) throws IOException {
+        for (int taskId = spill.peekLine(); taskId >= 0 && completed.get(taskId); taskId = spill.peekLine()) {
+            summary.write(spill.getResult(taskId));
+            spill.nextLine();
         }
+    }
 
+    /**
+     * Count a result line as completed when it ends with the url of an output, as failed otherwise
+     */
+    private void countResult(String result) {
+        String[] tokens = result.split("\\s+", 3);
+        boolean completed = tokens.length == 3
+                && tokens[2].startsWith(Transport.blobs().getObjectUrl(S3Utils.PRIVATE_BUCKET, ""));
+        Metrics.counter(completed ? "manager.tasks.completed" : "manager.tasks.failed", "app", id).increment();
+    }
+
+    private static String buildUndeliveredLine(String task) {
+        String[] operationUrlPair = task.split("\\s+");
+        if (operationUrlPair.length < 2)
+            return operationUrlPair[0].toUpperCase() + ": invalid input line, no url";
+        return operationUrlPair[0].toUpperCase() + ": " + operationUrlPair[1] + " could not delegate task to workers";
     }
 
+    /**
+     * @return the last summary line of a job whose input could not be read to its end
+     */
+    private String buildTruncatedLine() {
+        return "INPUT: truncated after " + numOfLines + " lines, could not read the rest of the input file: "
+                + inputTruncated.replace('\r', ' ').replace('\n', ' ');
+    }
 
     /**
      * @param body message body
@@ -136,27 +373,6 @@ public class ManagerRunner implements Runnable {
 
     }
 
-    /**
-     * @param filename file name
-     * @return List of all the messages from the pdf file, which we get by sqs.
-     */
-    public List<String> createWorkerTasks(String filename) {
-        List<String> tasks = new LinkedList<>();
-        BufferedReader reader;
-        String line;
-        try {
-            reader = new BufferedReader(new FileReader(filename));
-            line = reader.readLine();
-            while (line != null) {
-                tasks.add(line);
-                line = reader.readLine();
-            }
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
-        return tasks;
-    }
-
     @Override
     public String toString() {
         return "ManagerRunner{" +
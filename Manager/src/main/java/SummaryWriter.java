@@ -0,0 +1,92 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the summary file of a job into the blob store a part at a time as its lines are written,
+ * so the manager holds no more than a part of it however large the job is. The lines are written in input
+ * order, each once all the lines before it have a result.
+ * <p>
+ * With -Dmanager.partialSummaryLines=N (0, disabled) every N lines are also published as a partial summary,
+ * announced to the local app with a "partial firstLine url" message, so it can render the results it
+ * already has. Each partial continues the previous one, and the final summary holds all the lines, in the
+ * same order; it is announced with its bare url.
+ */
+public class SummaryWriter {
+    private final static Logger log = LoggerFactory.getLogger(SummaryWriter.class);
+
+    public static final String PARTIAL_PREFIX = "partial";
+    private static final int PARTIAL_LINES = Integer.getInteger("manager.partialSummaryLines", 0);
+
+    private final String bucket;
+    private final String key;
+    private final String localQName;
+    private final BlobStore.Upload upload;
+    private final Writer writer;
+    private final StringBuilder partial = new StringBuilder();
+    private int lines;
+    private int partialFirstLine;
+
+    /**
+     * @param localQName queue the summary and its partials are announced on
+     */
+    public SummaryWriter(String bucket, String key, String localQName) {
+        this.bucket = bucket;
+        this.key = key;
+        this.localQName = localQName;
+        this.upload = Transport.blobs().openUpload(bucket, key);
+        this.writer = new BufferedWriter(new OutputStreamWriter(upload, StandardCharsets.UTF_8));
+    }
+
+    public void write(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        lines++;
+        if (PARTIAL_LINES > 0) {
+            partial.append(line).append('\n');
+            if (lines - partialFirstLine >= PARTIAL_LINES)
+                publishPartial();
+        }
+    }
+
+    private void publishPartial() {
+        String partialKey = key + "." + PARTIAL_PREFIX + partialFirstLine;
+        byte[] content = partial.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            Transport.blobs().uploadStream(new ByteArrayInputStream(content), content.length, bucket, partialKey);
+            Transport.queues().sendMSG(localQName, PARTIAL_PREFIX + " " + partialFirstLine + " "
+                    + S3Utils.getFileUrl(partialKey));
+        } catch (RuntimeException ex) {
+            // The final summary has these lines as well.
+            log.warn("could not publish partial summary {}: {}", partialKey, ex.getMessage());
+        }
+        partial.setLength(0);
+        partialFirstLine = lines;
+    }
+
+    /**
+     * Complete the summary upload and announce it.
+     */
+    public void finish() throws IOException {
+        writer.close();
+        log.debug("summary {} finished with {} lines", key, lines);
+        Transport.queues().sendMSG(localQName, S3Utils.getFileUrl(key));
+    }
+
+    /**
+     * Drop the summary after a failure.
+     */
+    public void abort() {
+        upload.abort();
+    }
+
+    public int getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Local scratch files that hold the state of a job which grows with its input, instead of the heap:
+ * the task id of every input line, in input order, and the key and result of every task, by task id.
+ * <p>
+ * Lines are all added first, then read back in order once. Keys and results are appended to a data file,
+ * and an index file holds their offsets at a fixed position per task id. The files are deleted on close.
+ * <p>
+ * Tasks are found by key through a hash table in memory, which holds a 64 bit hash of each key and its task id,
+ * and compares the key on disk only when the hashes match. So the heap still grows with the number of distinct
+ * tasks, by about 24 bytes each at most (some 240MB for 10 million), but no longer with their keys or results.
+ */
+public class TaskSpill implements Closeable {
+    // Per task: the offset of its key and of its result in the data file, 0 if there is none.
+    private static final int INDEX_RECORD_BYTES = 16;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final File linesFile;
+    private final File dataFile;
+    private final File indexFile;
+    private final DataOutputStream linesOut;
+    private final RandomAccessFile data;
+    private final RandomAccessFile index;
+    private DataInputStream linesIn;
+    // Task of the next line to read, -1 before it is read
+    private int nextLineTask = -1;
+    private long dataLength;
+    // Open addressing table, kept at most half full: a slot holds a task id + 1 (0 if empty) and its key hash.
+    private int[] slotTasks = new int[INITIAL_SLOTS];
+    private long[] slotHashes = new long[INITIAL_SLOTS];
+    private int numOfTasks;
+    private int numOfLines;
+    private int linesRead;
+
+    /**
+     * @param prefix names the scratch files, e.g. by the job id
+     */
+    public TaskSpill(String prefix) throws IOException {
+        linesFile = File.createTempFile(prefix, ".lines");
+        dataFile = File.createTempFile(prefix, ".data");
+        indexFile = File.createTempFile(prefix, ".index");
+        linesOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(linesFile)));
+        data = new RandomAccessFile(dataFile, "rw");
+        index = new RandomAccessFile(indexFile, "rw");
+        // No record starts at offset 0, so it can stand for a missing one.
+        data.write(0);
+        dataLength = 1;
+    }
+
+    /**
+     * @param key a key that findTask does not find
+     * @return the id of the new task, the number of tasks added before it
+     */
+    public int addTask(String key) throws IOException {
+        int taskId = numOfTasks;
+        writeIndex((long) taskId * INDEX_RECORD_BYTES,
+                ByteBuffer.allocate(INDEX_RECORD_BYTES).putLong(append(key)).putLong(0).array());
+        numOfTasks++;
+        if (numOfTasks * 2 > slotTasks.length)
+            growSlots();
+        insertSlot(hash(key), taskId);
+        return taskId;
+    }
+
+    /**
+     * @return the id of the task added with the key, -1 if there is none
+     */
+    public int findTask(String key) throws IOException {
+        long hash = hash(key);
+        int mask = slotTasks.length - 1;
+        for (int slot = firstSlot(hash, mask); slotTasks[slot] != 0; slot = (slot + 1) & mask) {
+            int taskId = slotTasks[slot] - 1;
+            if (slotHashes[slot] == hash && getKey(taskId).equals(key))
+                return taskId;
+        }
+        return -1;
+    }
+
+    private void insertSlot(long hash, int taskId) {
+        int mask = slotTasks.length - 1;
+        int slot = firstSlot(hash, mask);
+        while (slotTasks[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slotTasks[slot] = taskId + 1;
+        slotHashes[slot] = hash;
+    }
+
+    private void growSlots() {
+        int[] tasks = slotTasks;
+        long[] hashes = slotHashes;
+        slotTasks = new int[tasks.length * 2];
+        slotHashes = new long[tasks.length * 2];
+        for (int slot = 0; slot < tasks.length; slot++) {
+            if (tasks[slot] != 0)
+                insertSlot(hashes[slot], tasks[slot] - 1);
+        }
+    }
+
+    private static int firstSlot(long hash, int mask) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * @return the 64 bit FNV-1a hash of the key
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public void putResult(int taskId, String result) throws IOException {
+        writeIndex((long) taskId * INDEX_RECORD_BYTES + 8, ByteBuffer.allocate(8).putLong(append(result)).array());
+    }
+
+    public String getKey(int taskId) throws IOException {
+        return read(readIndex(taskId).getLong(0));
+    }
+
+    /**
+     * @return the result of the task, null if it has none
+     */
+    public String getResult(int taskId) throws IOException {
+        long offset = readIndex(taskId).getLong(8);
+        return offset == 0 ? null : read(offset);
+    }
+
+    /**
+     * Add the next input line, done by the task.
+     */
+    public void addLine(int taskId) throws IOException {
+        linesOut.writeInt(taskId);
+        numOfLines++;
+    }
+
+    /**
+     * @return the task of the first line not read yet, -1 once all the lines were read.
+     * No line can be added after the first call.
+     */
+    public int peekLine() throws IOException {
+        if (nextLineTask < 0 && linesRead < numOfLines) {
+            if (linesIn == null) {
+                linesOut.close();
+                linesIn = new DataInputStream(new BufferedInputStream(new FileInputStream(linesFile)));
+            }
+            nextLineTask = linesIn.readInt();
+        }
+        return nextLineTask;
+    }
+
+    /**
+     * Move past the line peekLine returned.
+     */
+    public void nextLine() throws IOException {
+        if (peekLine() >= 0) {
+            nextLineTask = -1;
+            linesRead++;
+        }
+    }
+
+    public int getNumOfTasks() {
+        return numOfTasks;
+    }
+
+    private long append(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        long offset = dataLength;
+        data.seek(offset);
+        data.write(ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array());
+        dataLength += 4 + bytes.length;
+        return offset;
+    }
+
+    private String read(long offset) throws IOException {
+        byte[] length = new byte[4];
+        data.seek(offset);
+        data.readFully(length);
+        byte[] bytes = new byte[ByteBuffer.wrap(length).getInt()];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void writeIndex(long position, byte[] bytes) throws IOException {
+        index.seek(position);
+        index.write(bytes);
+    }
+
+    private ByteBuffer readIndex(int taskId) throws IOException {
+        if (taskId < 0 || taskId >= numOfTasks)
+            throw new EOFException("no task " + taskId);
+        byte[] record = new byte[INDEX_RECORD_BYTES];
+        index.seek((long) taskId * INDEX_RECORD_BYTES);
+        index.readFully(record);
+        return ByteBuffer.wrap(record);
+    }
+
+    /**
+     * Close and delete the scratch files.
+     */
+    @Override
+    public void close() {
+        for (Closeable file : new Closeable[]{linesOut, linesIn, data, index}) {
+            try {
+                if (file != null)
+                    file.close();
+            } catch (IOException ignored) {
+                // deleted below anyway
+            }
+        }
+        linesFile.delete();
+        dataFile.delete();
+        indexFile.delete();
+    }
+}
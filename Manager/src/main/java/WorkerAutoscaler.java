@@ -0,0 +1,271 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the number of workers in line with the backlog of the tasks queue.
+ * Periodically samples the queue depth, together with the tasks the running jobs are about to enqueue,
+ * and launches or terminates workers to stay between minWorkers and maxWorkers. Scale out and scale in
+ * each have a cooldown, and workers are only terminated once the queue has been fully drained for a while.
+ * <p>
+ * The backlog is counted in tasks, like the n of the jobs: a queue message may carry several tasks of the
+ * same pdf, so the queue depth is converted with the tasks per message the jobs report.
+ */
+public class WorkerAutoscaler implements Runnable {
+    private final static Logger log = LoggerFactory.getLogger(WorkerAutoscaler.class);
+
+    public static final int DEFAULT_MIN_WORKERS = Integer.getInteger("autoscaler.minWorkers", 0);
+    // Student accounts are limited to 10 instances, one of them is the manager.
+    public static final int DEFAULT_MAX_WORKERS = Integer.getInteger("autoscaler.maxWorkers", 9);
+    public static final long DEFAULT_SCALE_OUT_COOLDOWN_MILLIS = Long.getLong("autoscaler.scaleOutCooldownMillis", 30000);
+    public static final long DEFAULT_SCALE_IN_COOLDOWN_MILLIS = Long.getLong("autoscaler.scaleInCooldownMillis", 120000);
+    private static final long SAMPLE_PERIOD_MILLIS = Long.getLong("autoscaler.samplePeriodMillis", 10000);
+
+    /**
+     * Backlog of the queue the workers consume.
+     */
+    public interface QueueDepth {
+        int visible();
+
+        int inFlight();
+    }
+
+    /**
+     * The workers the autoscaler manages.
+     */
+    public interface WorkerFleet {
+        int size();
+
+        void launch(int count);
+
+        void terminate(int count);
+    }
+
+    private static class Job {
+        final int msgsPerWorker;
+        volatile int pendingTasks;
+        volatile double tasksPerMessage = 1;
+
+        Job(int msgsPerWorker, int pendingTasks) {
+            this.msgsPerWorker = msgsPerWorker;
+            this.pendingTasks = pendingTasks;
+        }
+    }
+
+    private final QueueDepth queueDepth;
+    private final WorkerFleet fleet;
+    private final int minWorkers;
+    private final int maxWorkers;
+    private final long scaleOutCooldownMillis;
+    private final long scaleInCooldownMillis;
+    private final LongSupplier clock;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private long lastScaleOut = Long.MIN_VALUE / 2;
+    private long lastScaleIn = Long.MIN_VALUE / 2;
+    private long idleSince = -1;
+    // The last sample, reported as gauges
+    private volatile int lastVisible;
+    private volatile int lastInFlight;
+    private volatile int lastPending;
+    private volatile int lastWorkers;
+
+    public WorkerAutoscaler(QueueDepth queueDepth, WorkerFleet fleet) {
+        this(queueDepth, fleet, DEFAULT_MIN_WORKERS, DEFAULT_MAX_WORKERS,
+                DEFAULT_SCALE_OUT_COOLDOWN_MILLIS, DEFAULT_SCALE_IN_COOLDOWN_MILLIS, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock current time in millis, replaceable to drive the autoscaler from a simulation
+     */
+    public WorkerAutoscaler(QueueDepth queueDepth, WorkerFleet fleet, int minWorkers, int maxWorkers,
+                            long scaleOutCooldownMillis, long scaleInCooldownMillis, LongSupplier clock) {
+        this.queueDepth = queueDepth;
+        this.fleet = fleet;
+        this.minWorkers = minWorkers;
+        this.maxWorkers = maxWorkers;
+        this.scaleOutCooldownMillis = scaleOutCooldownMillis;
+        this.scaleInCooldownMillis = scaleInCooldownMillis;
+        this.clock = clock;
+        Metrics.gauge("autoscaler.queue.visible", () -> lastVisible);
+        Metrics.gauge("autoscaler.queue.inFlight", () -> lastInFlight);
+        Metrics.gauge("autoscaler.pendingTasks", () -> lastPending);
+        Metrics.gauge("autoscaler.workers", () -> lastWorkers);
+    }
+
+    /**
+     * Start sampling the queue in the background.
+     */
+    public synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this, 0, SAMPLE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * Evaluate the fleet as soon as possible instead of waiting for the next sample.
+     */
+    public synchronized void nudge() {
+        if (scheduler != null && !scheduler.isShutdown())
+            scheduler.execute(this);
+    }
+
+    /**
+     * @param msgsPerWorker number of tasks the job wants each worker to handle
+     * @param pendingTasks  number of tasks the job is about to enqueue
+     */
+    public void registerJob(String id, int msgsPerWorker, int pendingTasks) {
+        jobs.put(id, new Job(Math.max(1, msgsPerWorker), pendingTasks));
+    }
+
+    public void updatePendingTasks(String id, int pendingTasks) {
+        Job job = jobs.get(id);
+        if (job != null)
+            job.pendingTasks = pendingTasks;
+    }
+
+    /**
+     * @param tasksPerMessage average number of tasks in the messages the job sent so far
+     */
+    public void updateTasksPerMessage(String id, double tasksPerMessage) {
+        Job job = jobs.get(id);
+        if (job != null)
+            job.tasksPerMessage = Math.max(1, tasksPerMessage);
+    }
+
+    public void unregisterJob(String id) {
+        jobs.remove(id);
+    }
+
+    @Override
+    public void run() {
+        try {
+            evaluate();
+        } catch (RuntimeException ex) {
+            log.error("WorkerAutoscaler.run(): evaluation failed... {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Sample the queue once and launch or terminate workers if needed.
+     */
+    public synchronized void evaluate() {
+        long now = clock.getAsLong();
+        int visible = queueDepth.visible();
+        int inFlight = queueDepth.inFlight();
+        int pending = 0;
+        int msgsPerWorker = Integer.MAX_VALUE;
+        double tasksPerMessage = 0;
+        for (Job job : jobs.values()) {
+            pending += job.pendingTasks;
+            msgsPerWorker = Math.min(msgsPerWorker, job.msgsPerWorker);
+            tasksPerMessage += job.tasksPerMessage;
+        }
+        // The jobs share the queue, so its messages are taken to carry the average of their tasks per message.
+        tasksPerMessage = jobs.isEmpty() ? 1 : tasksPerMessage / jobs.size();
+        int queuedTasks = (int) Math.ceil((visible + inFlight) * tasksPerMessage);
+        int backlog = queuedTasks + pending;
+        int desired = jobs.isEmpty() ? 0 : (backlog + msgsPerWorker - 1) / msgsPerWorker;
+        if (backlog > 0)
+            desired = Math.max(desired, 1);
+        desired = Math.max(minWorkers, Math.min(maxWorkers, desired));
+        int current = fleet.size();
+        lastVisible = visible;
+        lastInFlight = inFlight;
+        lastPending = pending;
+        lastWorkers = current;
+        log.debug("WorkerAutoscaler: visible " + visible + ", in flight " + inFlight + ", tasks per message "
+                + tasksPerMessage + ", pending " + pending + ", workers " + current + ", desired " + desired);
+
+        if (backlog == 0) {
+            if (idleSince < 0)
+                idleSince = now;
+        } else {
+            idleSince = -1;
+        }
+
+        if (desired > current) {
+            if (now - lastScaleOut >= scaleOutCooldownMillis) {
+                log.info("WorkerAutoscaler launching " + (desired - current) + " workers for a backlog of " + backlog);
+                fleet.launch(desired - current);
+                lastScaleOut = now;
+            }
+        } else if (desired < current && idleSince >= 0
+                && now - idleSince >= scaleInCooldownMillis
+                && now - lastScaleIn >= scaleInCooldownMillis) {
+            log.info("WorkerAutoscaler terminating " + (current - desired) + " idle workers");
+            fleet.terminate(current - desired);
+            lastScaleIn = now;
+        }
+    }
+
+    /**
+     * Queue depth from the approximate message counts of the queue.
+     */
+    public static class ApproximateQueueDepth implements QueueDepth {
+        private final String qName;
+
+        public ApproximateQueueDepth(String qName) {
+            this.qName = qName;
+        }
+
+        @Override
+        public int visible() {
+            return attribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES);
+        }
+
+        @Override
+        public int inFlight() {
+            return attribute(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE);
+        }
+
+        private int attribute(QueueAttributeName name) {
+            String value = Transport.queues().getQueueAttributes(qName, name).get(name);
+            return value == null ? 0 : Integer.parseInt(value);
+        }
+    }
+
+    /**
+     * Workers started by the compute provisioner of the transport.
+     */
+    public static class ProvisionedWorkerFleet implements WorkerFleet {
+        private final String tasksQName;
+        private final String workerOutputQName;
+
+        public ProvisionedWorkerFleet(String tasksQName, String workerOutputQName) {
+            this.tasksQName = tasksQName;
+            this.workerOutputQName = workerOutputQName;
+        }
+
+        @Override
+        public int size() {
+            return Transport.compute().numOfRunningWorkers();
+        }
+
+        @Override
+        public void launch(int count) {
+            Transport.compute().launchWorkers(count, tasksQName, workerOutputQName);
+        }
+
+        /**
+         * Terminates any count workers, busy or not. Safe only because the autoscaler scales in once nothing
+         * was in flight for the scale-in cooldown; a message a terminated worker still held would come back
+         * after its visibility timeout anyway.
+         */
+        @Override
+        public void terminate(int count) {
+            Transport.compute().terminateWorkers(count);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives the WorkerAutoscaler against a simulated queue, a fake worker fleet and a manual clock.
+ */
+public class WorkerAutoscalerTest {
+    private static final int MIN_WORKERS = 1;
+    private static final int MAX_WORKERS = 5;
+    private static final long SCALE_OUT_COOLDOWN = 30000;
+    private static final long SCALE_IN_COOLDOWN = 120000;
+    private static final int MSGS_PER_WORKER = 10;
+
+    private static class SimulatedQueue implements WorkerAutoscaler.QueueDepth {
+        int visible;
+        int inFlight;
+
+        @Override
+        public int visible() {
+            return visible;
+        }
+
+        @Override
+        public int inFlight() {
+            return inFlight;
+        }
+    }
+
+    private static class FakeFleet implements WorkerAutoscaler.WorkerFleet {
+        int workers;
+        int terminations;
+
+        @Override
+        public int size() {
+            return workers;
+        }
+
+        @Override
+        public void launch(int count) {
+            workers += count;
+        }
+
+        @Override
+        public void terminate(int count) {
+            workers -= count;
+            terminations++;
+        }
+    }
+
+    private final SimulatedQueue queue = new SimulatedQueue();
+    private final FakeFleet fleet = new FakeFleet();
+    private long now;
+    private final WorkerAutoscaler autoscaler = new WorkerAutoscaler(queue, fleet, MIN_WORKERS, MAX_WORKERS,
+            SCALE_OUT_COOLDOWN, SCALE_IN_COOLDOWN, () -> now);
+
+    @Test
+    public void scaleOutIsClampedToTheMax() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 0);
+        // A backlog of 100 tasks wants 10 workers.
+        queue.visible = 100;
+        evaluateAt(0);
+        assertEquals(MAX_WORKERS, fleet.workers);
+    }
+
+    @Test
+    public void noScaleOutDuringTheCooldown() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 0);
+        queue.visible = 100;
+        evaluateAt(0);
+        // Two workers die; they are not replaced before the scale-out cooldown is over.
+        fleet.workers = 3;
+        evaluateAt(SCALE_OUT_COOLDOWN - 1);
+        assertEquals(3, fleet.workers);
+        evaluateAt(SCALE_OUT_COOLDOWN);
+        assertEquals(MAX_WORKERS, fleet.workers);
+    }
+
+    @Test
+    public void noScaleInWhileThereIsBacklog() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 0);
+        queue.visible = 100;
+        evaluateAt(0);
+        // A small backlog wants fewer workers, but nothing is terminated while there is any.
+        queue.visible = 0;
+        queue.inFlight = 5;
+        for (long time = SCALE_IN_COOLDOWN; time <= 4 * SCALE_IN_COOLDOWN; time += SCALE_IN_COOLDOWN / 2) {
+            evaluateAt(time);
+        }
+        assertEquals(0, fleet.terminations);
+        assertEquals(MAX_WORKERS, fleet.workers);
+    }
+
+    @Test
+    public void scaleInToTheMinOnlyAfterTheIdleCooldown() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 0);
+        queue.visible = 100;
+        evaluateAt(0);
+        queue.visible = 0;
+        long idleSince = 10 * SCALE_IN_COOLDOWN;
+        evaluateAt(idleSince);
+        evaluateAt(idleSince + SCALE_IN_COOLDOWN - 1);
+        assertEquals(0, fleet.terminations);
+        evaluateAt(idleSince + SCALE_IN_COOLDOWN);
+        assertEquals(MIN_WORKERS, fleet.workers);
+    }
+
+    @Test
+    public void theMinIsKeptWithoutJobs() {
+        evaluateAt(0);
+        assertEquals(MIN_WORKERS, fleet.workers);
+        fleet.workers = 3;
+        evaluateAt(SCALE_IN_COOLDOWN);
+        evaluateAt(2 * SCALE_IN_COOLDOWN);
+        assertEquals(MIN_WORKERS, fleet.workers);
+    }
+
+    @Test
+    public void pendingTasksAreScaledFor() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 2 * MSGS_PER_WORKER);
+        evaluateAt(0);
+        assertEquals(2, fleet.workers);
+    }
+
+    @Test
+    public void queuedMessagesAreCountedInTasks() {
+        autoscaler.registerJob("job", MSGS_PER_WORKER, 0);
+        // 10 messages of 3 tasks each want 3 workers.
+        autoscaler.updateTasksPerMessage("job", 3);
+        queue.visible = 10;
+        evaluateAt(0);
+        assertEquals(3, fleet.workers);
+    }
+
+    private void evaluateAt(long time) {
+        now = time;
+        autoscaler.evaluate();
+    }
+}
@@ -0,0 +1,123 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits the pages of a large document into chunks that are converted on a fork-join pool shared
+ * by all the task slots, so a 500 page pdf does not hold a single core for minutes.
+ * PDDocument is not thread safe, so every chunk but the first parses its own copy of the downloaded pdf;
+ * the first chunk runs in the calling thread over the already loaded document.
+ * As every chunk pays a full parse, there is at most a chunk per pool thread, and the extra copies are
+ * limited to -Dworker.parallelPagesBytes (256MB, at most a quarter of the heap) of pdf. A pdf that spilled to disk
+ * is too large to parse several times and is never split.
+ * <p>
+ * Tuned with -Dworker.pageThreads (cores), -Dworker.parallelPages, the page count from which text
+ * and html are split (64, 0 disables splitting) and -Dworker.parallelPagesBytes.
+ */
+public class ParallelPages {
+    private final static Logger log = LoggerFactory.getLogger(ParallelPages.class);
+
+    public static final int PARALLEL_PAGES = Integer.getInteger("worker.parallelPages", 64);
+    private static final long PARALLEL_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 4,
+            Long.getLong("worker.parallelPagesBytes", 256L * 1024 * 1024));
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1,
+            Integer.getInteger("worker.pageThreads", Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Converts the pages first..last (0-based, inclusive) of a document.
+     */
+    public interface ChunkConverter<T> {
+        T convert(PDDocument document, int firstPage, int lastPage, int chunkIndex, int numOfChunks)
+                throws IOException;
+    }
+
+    /**
+     * @return whether a text or html conversion of the document is worth splitting
+     */
+    public static boolean worthSplitting(PDDocument document, SpillBuffer pdf) {
+        return PARALLEL_PAGES > 0 && document.getNumberOfPages() >= PARALLEL_PAGES && maxChunks(pdf) > 1;
+    }
+
+    /**
+     * @return whether rendering the selected pages is worth splitting; every page is costly to render
+     */
+    public static boolean worthSplitting(int numOfPages, SpillBuffer pdf) {
+        return PARALLEL_PAGES > 0 && numOfPages > 1 && maxChunks(pdf) > 1;
+    }
+
+    /**
+     * @return a chunk size that splits the pages into as many chunks as the pdf allows
+     */
+    public static int pagesPerChunk(int numOfPages, SpillBuffer pdf) {
+        int chunks = maxChunks(pdf);
+        return Math.max(1, (numOfPages + chunks - 1) / chunks);
+    }
+
+    /**
+     * @return how many chunks, each parsing the pdf once, the pdf may be converted in
+     */
+    private static int maxChunks(SpillBuffer pdf) {
+        if (!pdf.isInMemory())
+            return 1;
+        long extraCopies = PARALLEL_BYTES / Math.max(1, pdf.size());
+        return (int) Math.min(pool.getParallelism(), 1 + extraCopies);
+    }
+
+    /**
+     * Convert the pages first..last of the document in chunks of pagesPerChunk pages, in parallel.
+     *
+     * @param document the loaded pdf, used by the first chunk
+     * @param pdf      the downloaded pdf, parsed again by the other chunks
+     * @return the chunk results, in page order
+     */
+    public static <T> List<T> convert(PDDocument document, SpillBuffer pdf, ScratchSpace scratch, int first, int last,
+                                      int pagesPerChunk, ChunkConverter<T> converter) throws IOException {
+        int numOfChunks = (last - first + pagesPerChunk) / pagesPerChunk;
+        log.debug("converting pages {}-{} in {} chunks", first, last, numOfChunks);
+        List<ForkJoinTask<T>> forked = new ArrayList<>();
+        for (int chunk = 1; chunk < numOfChunks; chunk++) {
+            int chunkFirst = first + chunk * pagesPerChunk;
+            int chunkLast = Math.min(last, chunkFirst + pagesPerChunk - 1);
+            int chunkIndex = chunk;
+            forked.add(pool.submit(() -> {
+                try (PDDocument copy = Utils.loadDocument(pdf, scratch)) {
+                    return converter.convert(copy, chunkFirst, chunkLast, chunkIndex, numOfChunks);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        }
+        List<T> results = new ArrayList<>(numOfChunks);
+        try {
+            results.add(converter.convert(document, first, Math.min(last, first + pagesPerChunk - 1), 0, numOfChunks));
+            for (ForkJoinTask<T> task : forked) {
+                results.add(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while converting pages", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            // On failure, stop the chunks that did not start and wait for the running ones, so none of them
+            // outlives the scratch space of the task or keeps a pool thread busy after it failed.
+            for (ForkJoinTask<T> task : forked) {
+                task.cancel(false);
+            }
+            for (ForkJoinTask<T> task : forked) {
+                task.quietlyJoin();
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,269 @@
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Downloads the pdfs with a single GET each, over a pool of keep-alive connections shared by all the
+ * task slots, so repeated downloads from the same host skip the tcp and tls handshakes.
+ * Redirects are followed, and connection failures, 5xx and 429 responses are retried with a jittered
+ * exponential backoff.
+ * <p>
+ * Configured with -Dworker.http.connectTimeoutMillis (3000), -Dworker.http.readTimeoutMillis (10000),
+ * -Dworker.http.maxConnections (64), -Dworker.http.maxConnectionsPerHost (16), -Dworker.http.maxRedirects (5),
+ * -Dworker.http.retries (2) and -Dworker.http.maxBytes (256MB).
+ */
+public class PdfDownloader {
+    private final static Logger log = LoggerFactory.getLogger(PdfDownloader.class);
+
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("worker.http.connectTimeoutMillis", 3000);
+    private static final int READ_TIMEOUT = Integer.getInteger("worker.http.readTimeoutMillis", 10000);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("worker.http.maxConnections", 64);
+    private static final int MAX_CONNECTIONS_PER_HOST = Integer.getInteger("worker.http.maxConnectionsPerHost", 16);
+    private static final int MAX_REDIRECTS = Integer.getInteger("worker.http.maxRedirects", 5);
+    private static final int RETRIES = Integer.getInteger("worker.http.retries", 2);
+    private static final long MAX_BYTES = Long.getLong("worker.http.maxBytes", 256L * 1024 * 1024);
+    private static final long BASE_BACKOFF_MILLIS = 200;
+    private static final long IDLE_CONNECTION_SECONDS = 30;
+
+    private static final PdfDownloader shared = new PdfDownloader();
+
+    /**
+     * A response with a status the caller did not expect.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int statusCode;
+
+        public HttpStatusException(int statusCode) {
+            super("Error response. error code: " + statusCode);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        boolean isTransient() {
+            return isTransient(statusCode);
+        }
+
+        static boolean isTransient(int statusCode) {
+            return statusCode >= 500 || statusCode == 429;
+        }
+    }
+
+    /**
+     * A pdf larger than the max size.
+     */
+    public static class TooLargeException extends IOException {
+        public TooLargeException(long size) {
+            super("pdf is larger than " + MAX_BYTES + " bytes: " + size);
+        }
+    }
+
+    /**
+     * Handles the response of an attempt. Called again for every retry, so it must not keep state between calls.
+     */
+    public interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * The status and headers of a response, and its body for whoever wants to read it.
+     */
+    public class Response {
+        private final CloseableHttpResponse response;
+
+        private Response(CloseableHttpResponse response) {
+            this.response = response;
+        }
+
+        public int getStatusCode() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        /**
+         * @return the header value, null if there is none
+         */
+        public String getHeader(String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        /**
+         * Copy the body to out, up to the max size.
+         */
+        public void readBody(OutputStream out) throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null)
+                return;
+            if (entity.getContentLength() > MAX_BYTES)
+                throw new TooLargeException(entity.getContentLength());
+            long total = 0;
+            try (InputStream in = entity.getContent()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    total += read;
+                    if (total > MAX_BYTES)
+                        throw new TooLargeException(total);
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                bytes.add(total);
+            }
+        }
+    }
+
+    private final CloseableHttpClient client;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder latencyMillis = new LongAdder();
+    private final AtomicLong maxLatencyMillis = new AtomicLong();
+
+    private PdfDownloader() {
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(MAX_CONNECTIONS);
+        connections.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_HOST);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setConnectionRequestTimeout(CONNECT_TIMEOUT)
+                .setSocketTimeout(READ_TIMEOUT)
+                .setRedirectsEnabled(true)
+                .setMaxRedirects(MAX_REDIRECTS)
+                .build();
+        client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(requestConfig)
+                .setRedirectStrategy(new LaxRedirectStrategy())
+                .disableAutomaticRetries()
+                .evictIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static PdfDownloader shared() {
+        return shared;
+    }
+
+    /**
+     * Download the pdf into memory, spilling to spillFile only if it is very large.
+     */
+    public SpillBuffer download(String url, Path spillFile) throws IOException {
+        return get(url, Collections.emptyMap(), response -> {
+            if (response.getStatusCode() != 200)
+                throw new HttpStatusException(response.getStatusCode());
+            SpillBuffer pdf = new SpillBuffer(spillFile);
+            try (SpillBuffer out = pdf) {
+                response.readBody(out);
+            }
+            return pdf;
+        });
+    }
+
+    /**
+     * Send a GET with the given headers, and let the handler decide what to do with the response.
+     * A body the handler does not read is not downloaded.
+     */
+    public <T> T get(String url, Map<String, String> headers, ResponseHandler<T> handler) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            long start = System.currentTimeMillis();
+            requests.increment();
+            try {
+                return attempt(url, headers, handler);
+            } catch (IOException ex) {
+                boolean retryable = !(ex instanceof TooLargeException)
+                        && (!(ex instanceof HttpStatusException) || ((HttpStatusException) ex).isTransient());
+                if (!retryable || attempt >= RETRIES) {
+                    failures.increment();
+                    throw ex;
+                }
+                retries.increment();
+                log.debug("download of {} failed, retrying. {}", url, ex.toString());
+            } finally {
+                long latency = System.currentTimeMillis() - start;
+                latencyMillis.add(latency);
+                maxLatencyMillis.accumulateAndGet(latency, Math::max);
+            }
+            backoff(attempt);
+        }
+    }
+
+    private <T> T attempt(String url, Map<String, String> headers, ResponseHandler<T> handler) throws IOException {
+        HttpGet get = new HttpGet(url);
+        headers.forEach(get::setHeader);
+        // Closing a response whose body was not read to the end drops its connection instead of returning it to the pool.
+        try (CloseableHttpResponse httpResponse = client.execute(get)) {
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (HttpStatusException.isTransient(statusCode))
+                throw new HttpStatusException(statusCode);
+            return handler.handle(new Response(httpResponse));
+        }
+    }
+
+    private static void backoff(int attempt) throws IOException {
+        long ceiling = BASE_BACKOFF_MILLIS << attempt;
+        try {
+            Thread.sleep(ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting to retry", e);
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getTotalLatencyMillis() {
+        return latencyMillis.sum();
+    }
+
+    public long getMaxLatencyMillis() {
+        return maxLatencyMillis.get();
+    }
+
+    @Override
+    public String toString() {
+        long numOfRequests = getRequests();
+        return "downloads{" +
+                "requests=" + numOfRequests +
+                ", retries=" + getRetries() +
+                ", failures=" + getFailures() +
+                ", bytes=" + getBytes() +
+                ", avgLatencyMillis=" + (numOfRequests == 0 ? 0 : getTotalLatencyMillis() / numOfRequests) +
+                ", maxLatencyMillis=" + getMaxLatencyMillis() +
+                '}';
+    }
+}
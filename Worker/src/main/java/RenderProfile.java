@@ -0,0 +1,196 @@
+import org.apache.pdfbox.rendering.ImageType;
+
+import java.util.Locale;
+
+/**
+ * How a TOIMAGE task renders its pdf. Carried in the task operation as ";"-separated options,
+ * e.g. "TOIMAGE;dpi=72;color=gray;format=jpeg;quality=0.7;maxWidth=400", where every option is optional:
+ * <ul>
+ * <li>dpi - render resolution (300)</li>
+ * <li>pages - a 1-based page "3", range "2-5" or "all" (1)</li>
+ * <li>color - rgb or gray (rgb)</li>
+ * <li>format - png or jpeg (png)</li>
+ * <li>quality - jpeg quality between 0 and 1 (0.8)</li>
+ * <li>maxWidth, maxHeight - pixels; a page that would be larger is rendered at a lower resolution (none)</li>
+ * </ul>
+ * Rendering cost grows with the square of the dpi, so thumbnails should ask for a low dpi or a max size.
+ */
+public class RenderProfile {
+    public static final String OPTIONS_SEPARATOR = ";";
+    public static final int ALL_PAGES = -1;
+    public static final RenderProfile DEFAULT = new RenderProfile(300, 1, 1, ImageType.RGB, "png", 0.8f, 0, 0);
+
+    private static final int MAX_DPI = 1200;
+
+    private final int dpi;
+    private final int firstPage;
+    private final int lastPage;
+    private final ImageType imageType;
+    private final String format;
+    private final float quality;
+    private final int maxWidth;
+    private final int maxHeight;
+
+    private RenderProfile(int dpi, int firstPage, int lastPage, ImageType imageType, String format, float quality,
+                          int maxWidth, int maxHeight) {
+        this.dpi = dpi;
+        this.firstPage = firstPage;
+        this.lastPage = lastPage;
+        this.imageType = imageType;
+        this.format = format;
+        this.quality = quality;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * @param operation the task operation, e.g. "TOIMAGE;dpi=72;pages=all"
+     * @return the profile of its options, DEFAULT for a bare "TOIMAGE"
+     * @throws IllegalArgumentException on an unknown or invalid option
+     */
+    public static RenderProfile parse(String operation) {
+        int dpi = DEFAULT.dpi, firstPage = DEFAULT.firstPage, lastPage = DEFAULT.lastPage;
+        ImageType imageType = DEFAULT.imageType;
+        String format = DEFAULT.format;
+        float quality = DEFAULT.quality;
+        int maxWidth = DEFAULT.maxWidth, maxHeight = DEFAULT.maxHeight;
+        String[] options = operation.split(OPTIONS_SEPARATOR);
+        // options[0] is the operation name itself
+        for (int i = 1; i < options.length; i++) {
+            if (options[i].isEmpty())
+                continue;
+            String[] nameValue = options[i].split("=", 2);
+            if (nameValue.length != 2)
+                throw new IllegalArgumentException("bad render option: " + options[i]);
+            String value = nameValue[1].trim().toLowerCase(Locale.ROOT);
+            switch (nameValue[0].trim().toLowerCase(Locale.ROOT)) {
+                case "dpi":
+                    dpi = Integer.parseInt(value);
+                    if (dpi < 1 || dpi > MAX_DPI)
+                        throw new IllegalArgumentException("dpi must be between 1 and " + MAX_DPI + ": " + value);
+                    break;
+                case "pages":
+                    if (value.equals("all")) {
+                        firstPage = 1;
+                        lastPage = ALL_PAGES;
+                    } else {
+                        String[] range = value.split("-", 2);
+                        firstPage = Integer.parseInt(range[0]);
+                        lastPage = range.length == 2 ? Integer.parseInt(range[1]) : firstPage;
+                        if (firstPage < 1 || lastPage < firstPage)
+                            throw new IllegalArgumentException("bad page range: " + value);
+                    }
+                    break;
+                case "color":
+                    if (value.equals("gray") || value.equals("grey"))
+                        imageType = ImageType.GRAY;
+                    else if (value.equals("rgb"))
+                        imageType = ImageType.RGB;
+                    else
+                        throw new IllegalArgumentException("color must be rgb or gray: " + value);
+                    break;
+                case "format":
+                    if (value.equals("jpg") || value.equals("jpeg"))
+                        format = "jpg";
+                    else if (value.equals("png"))
+                        format = "png";
+                    else
+                        throw new IllegalArgumentException("format must be png or jpeg: " + value);
+                    break;
+                case "quality":
+                    quality = Float.parseFloat(value);
+                    if (quality < 0 || quality > 1)
+                        throw new IllegalArgumentException("quality must be between 0 and 1: " + value);
+                    break;
+                case "maxwidth":
+                    maxWidth = Integer.parseInt(value);
+                    if (maxWidth < 1)
+                        throw new IllegalArgumentException("maxWidth must be positive: " + value);
+                    break;
+                case "maxheight":
+                    maxHeight = Integer.parseInt(value);
+                    if (maxHeight < 1)
+                        throw new IllegalArgumentException("maxHeight must be positive: " + value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown render option: " + options[i]);
+            }
+        }
+        return new RenderProfile(dpi, firstPage, lastPage, imageType, format, quality, maxWidth, maxHeight);
+    }
+
+    public RenderProfile withDpi(int dpi) {
+        return new RenderProfile(dpi, firstPage, lastPage, imageType, format, quality, maxWidth, maxHeight);
+    }
+
+    public RenderProfile withImageType(ImageType imageType) {
+        return new RenderProfile(dpi, firstPage, lastPage, imageType, format, quality, maxWidth, maxHeight);
+    }
+
+    public int getDpi() {
+        return dpi;
+    }
+
+    /**
+     * @return 0-based index of the first page to render
+     */
+    public int firstPageIndex() {
+        return firstPage - 1;
+    }
+
+    /**
+     * @return 0-based index of the last page to render, clipped to the document
+     */
+    public int lastPageIndex(int numberOfPages) {
+        return lastPage == ALL_PAGES ? numberOfPages - 1 : Math.min(lastPage, numberOfPages) - 1;
+    }
+
+    public ImageType getImageType() {
+        return imageType;
+    }
+
+    /**
+     * @return the ImageIO format name, png or jpg
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the extension of the output for a document: zip when several pages are rendered, the format otherwise
+     */
+    public String outputExtension(int numberOfPages) {
+        return firstPageIndex() < lastPageIndex(numberOfPages) ? "zip" : format;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * @param pageWidth  in points (1/72 inch)
+     * @param pageHeight in points
+     * @return the render scale for a page: dpi / 72, lowered to fit the max dimensions
+     */
+    public float scaleFor(float pageWidth, float pageHeight) {
+        float scale = dpi / 72f;
+        if (maxWidth > 0)
+            scale = Math.min(scale, maxWidth / pageWidth);
+        if (maxHeight > 0)
+            scale = Math.min(scale, maxHeight / pageHeight);
+        return scale;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderProfile{" +
+                "dpi=" + dpi +
+                ", pages=" + firstPage + "-" + (lastPage == ALL_PAGES ? "all" : String.valueOf(lastPage)) +
+                ", imageType=" + imageType +
+                ", format=" + format +
+                ", quality=" + quality +
+                ", maxWidth=" + maxWidth +
+                ", maxHeight=" + maxHeight +
+                '}';
+    }
+}
@@ -0,0 +1,164 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the result lines of the tasks per results queue, and sends them as a single multi-line message
+ * once it holds -Dworker.resultBatchBytes (128KB, below the 256KB sqs limit) or its oldest result is
+ * -Dworker.resultBatchMillis (1000) old, so the manager receives and deletes a message per batch instead of per pdf.
+ * <p>
+ * The task messages of a batch are deleted only after it was sent; if the send fails they become visible
+ * again and are redone.
+ */
+public class ResultBatcher {
+    private final static Logger log = LoggerFactory.getLogger(ResultBatcher.class);
+
+    private static final int MAX_MESSAGE_BYTES = 250 * 1024;
+    private static final int BATCH_BYTES = Math.min(MAX_MESSAGE_BYTES,
+            Integer.getInteger("worker.resultBatchBytes", 128 * 1024));
+    private static final long BATCH_MILLIS = Long.getLong("worker.resultBatchMillis", 1000);
+
+    private static class Batch {
+        final StringBuilder body = new StringBuilder();
+        final List<Message> tasks = new ArrayList<>();
+        int bytes;
+    }
+
+    private final String inputQName;
+    private final Map<String, Batch> batches = new HashMap<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long messages;
+    private long lines;
+    private boolean closed;
+
+    /**
+     * @param inputQName queue the task messages are deleted from once their results are sent
+     */
+    public ResultBatcher(String inputQName) {
+        this.inputQName = inputQName;
+    }
+
+    /**
+     * Queue the result lines of a task, and the task message to delete once they are sent.
+     * Once closed, they are sent right away.
+     */
+    public void add(String outputQName, List<String> results, Message task) {
+        List<Batch> full = new ArrayList<>();
+        boolean nothingToSend;
+        synchronized (this) {
+            for (String result : results) {
+                // A line per result, so a failure message must not break lines.
+                String line = truncate(result.replace('\r', ' ').replace('\n', ' '));
+                int lineBytes = line.getBytes(StandardCharsets.UTF_8).length + 1;
+                Batch batch = batches.get(outputQName);
+                if (batch != null && batch.bytes + lineBytes > BATCH_BYTES) {
+                    full.add(batches.remove(outputQName));
+                    batch = null;
+                }
+                if (batch == null) {
+                    batch = new Batch();
+                    batches.put(outputQName, batch);
+                    Batch scheduled = batch;
+                    if (!closed)
+                        timer.schedule(() -> flushIfCurrent(outputQName, scheduled), BATCH_MILLIS,
+                                TimeUnit.MILLISECONDS);
+                }
+                if (batch.bytes > 0)
+                    batch.body.append('\n');
+                batch.body.append(line);
+                batch.bytes += lineBytes;
+                lines++;
+            }
+            // Deleted with the batch that holds its last line
+            Batch batch = batches.get(outputQName);
+            nothingToSend = batch == null;
+            if (batch != null) {
+                batch.tasks.add(task);
+                if (closed)
+                    full.add(batches.remove(outputQName));
+            }
+        }
+        if (nothingToSend)
+            Transport.queues().deleteMSG(task, inputQName);
+        for (Batch batch : full) {
+            send(outputQName, batch);
+        }
+    }
+
+    /**
+     * @return the line, cut to fit a message on its own. A longer body could never be sent,
+     * and its task would be redone forever.
+     */
+    private static String truncate(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < MAX_MESSAGE_BYTES)
+            return line;
+        String suffix = "...";
+        int length = MAX_MESSAGE_BYTES - 1 - suffix.length();
+        // Do not cut a multi-byte character in half
+        while (length > 0 && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8) + suffix;
+    }
+
+    private void flushIfCurrent(String outputQName, Batch batch) {
+        synchronized (this) {
+            if (batches.get(outputQName) != batch)
+                return;
+            batches.remove(outputQName);
+        }
+        send(outputQName, batch);
+    }
+
+    private void send(String outputQName, Batch batch) {
+        try {
+            Transport.queues().sendMSG(outputQName, batch.body.toString());
+            synchronized (this) {
+                messages++;
+            }
+        } catch (SqsException | SdkClientException ex) {
+            log.warn("could not send {} result bytes to {}, their tasks will be redone. {}", batch.bytes, outputQName,
+                    ex.getMessage());
+            return;
+        }
+        Transport.queues().deleteMSGs(batch.tasks, inputQName);
+    }
+
+    /**
+     * Send whatever is left and stop the timer.
+     */
+    public void close() {
+        Map<String, Batch> left;
+        synchronized (this) {
+            closed = true;
+            left = new HashMap<>(batches);
+            batches.clear();
+        }
+        left.forEach(this::send);
+        timer.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "results{" +
+                "lines=" + lines +
+                ", messages=" + messages +
+                '}';
+    }
+}
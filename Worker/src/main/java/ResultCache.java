@@ -0,0 +1,258 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Conversion results keyed by the operation and the content they were made from, so a pdf that repeats
+ * across lines and jobs is converted once.
+ * <p>
+ * The results are stored in the blob store under "cache/", keyed by a hash of the operation, the url and
+ * the ETag or Last-Modified validator the pdf was served with, or by a hash of the operation and the pdf
+ * content when the server sends no validator. A small in-memory index of recent (operation, url) results
+ * lets a repeat be revalidated with a conditional GET, which costs no download when the pdf did not change.
+ * <p>
+ * Disabled with -Dworker.resultCache=false; the index size is -Dworker.resultCacheEntries (10000).
+ */
+public class ResultCache {
+    private final static Logger log = LoggerFactory.getLogger(ResultCache.class);
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("worker.resultCache", "true"));
+    private static final int INDEX_ENTRIES = Integer.getInteger("worker.resultCacheEntries", 10000);
+    private static final String CACHE_PREFIX = "cache/";
+    private static final String PDF_NAME = "local_copy.pdf";
+
+    private static class Entry {
+        final String etag;
+        final String lastModified;
+        final String outputUrl;
+
+        Entry(String etag, String lastModified, String outputUrl) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.outputUrl = outputUrl;
+        }
+    }
+
+    /**
+     * The cached results of a pdf's operations, and the pdf itself if any operation missed.
+     */
+    public class Fetch {
+        private final String url;
+        private final String etag;
+        private final String lastModified;
+        private final SpillBuffer pdf;
+        private final Map<String, String> cachedUrls;
+        private final Map<String, String> cacheKeys;
+
+        private Fetch(String url, String etag, String lastModified, SpillBuffer pdf, Map<String, String> cachedUrls,
+                      Map<String, String> cacheKeys) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.pdf = pdf;
+            this.cachedUrls = cachedUrls;
+            this.cacheKeys = cacheKeys;
+        }
+
+        /**
+         * @return the url of the operation's cached output, null on a miss
+         */
+        public String cachedUrl(String operation) {
+            return cachedUrls.get(operation);
+        }
+
+        /**
+         * @return the downloaded pdf, null if every operation hit
+         */
+        public SpillBuffer getPdf() {
+            return pdf;
+        }
+
+        /**
+         * Upload the output of an operation that missed into the cache.
+         *
+         * @return the url the output is published under
+         */
+        public String store(String operation, SpillBuffer output) throws IOException {
+            String cacheKey = cacheKeys.get(operation);
+            try (InputStream in = output.openInputStream()) {
+                Transport.blobs().uploadStream(in, output.size(), bucket, cacheKey);
+            }
+            String outputUrl = Transport.blobs().getObjectUrl(bucket, cacheKey);
+            if (etag != null || lastModified != null)
+                index.put(operation + " " + url, new Entry(etag, lastModified, outputUrl));
+            return outputUrl;
+        }
+    }
+
+    private final String bucket;
+    private final Map<String, Entry> index = Collections.synchronizedMap(
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > INDEX_ENTRIES;
+                }
+            });
+    private long hits;
+    private long misses;
+
+    public ResultCache(String bucket) {
+        this.bucket = bucket;
+    }
+
+    /**
+     * Look the operations of the pdf at url up in the cache, downloading the pdf only if some operation
+     * missed and there is no validator to key it by.
+     */
+    public Fetch fetch(List<String> operations, String url, ScratchSpace scratch) throws IOException {
+        // Revalidate with the validators all the operations were cached under, when they agree.
+        Map<String, Entry> knownEntries = new HashMap<>();
+        Entry known = null;
+        for (String operation : operations) {
+            Entry entry = index.get(operation + " " + url);
+            if (entry == null || (known != null && !(Objects.equals(entry.etag, known.etag)
+                    && Objects.equals(entry.lastModified, known.lastModified)))) {
+                known = null;
+                break;
+            }
+            known = entry;
+            knownEntries.put(operation, entry);
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (known != null) {
+            if (known.etag != null)
+                headers.put("If-None-Match", known.etag);
+            if (known.lastModified != null)
+                headers.put("If-Modified-Since", known.lastModified);
+        }
+        Entry revalidated = known;
+        Fetch fetch = PdfDownloader.shared().get(url, headers, response -> {
+            Map<String, String> cachedUrls = new HashMap<>();
+            Map<String, String> cacheKeys = new HashMap<>();
+            if (response.getStatusCode() == 304 && revalidated != null) {
+                for (String operation : operations) {
+                    cachedUrls.put(operation, knownEntries.get(operation).outputUrl);
+                }
+                return new Fetch(url, revalidated.etag, revalidated.lastModified, null, cachedUrls, cacheKeys);
+            }
+            if (response.getStatusCode() != 200)
+                throw new PdfDownloader.HttpStatusException(response.getStatusCode());
+
+            String etag = response.getHeader("ETag");
+            String lastModified = response.getHeader("Last-Modified");
+            if (etag != null || lastModified != null) {
+                for (String operation : operations) {
+                    cacheKeys.put(operation, CACHE_PREFIX + sha256Hex(operation + "\n" + url + "\n" + etag + "\n" + lastModified));
+                }
+                if (lookupAll(operations, cacheKeys, cachedUrls)) {
+                    for (String operation : operations) {
+                        index.put(operation + " " + url, new Entry(etag, lastModified, cachedUrls.get(operation)));
+                    }
+                    // The body is left unread, so the pdf is never downloaded.
+                    return new Fetch(url, etag, lastModified, null, cachedUrls, cacheKeys);
+                }
+            }
+
+            MessageDigest digest = sha256();
+            SpillBuffer pdf = new SpillBuffer(scratch.resolve(PDF_NAME));
+            try (OutputStream out = new DigestOutputStream(pdf, digest)) {
+                response.readBody(out);
+            }
+            if (cacheKeys.isEmpty()) {
+                // No validator, the content itself is the key. This saves the conversions but not the download.
+                String contentHash = toHex(digest.digest());
+                for (String operation : operations) {
+                    cacheKeys.put(operation, CACHE_PREFIX + sha256Hex(operation + "\n" + contentHash));
+                }
+                lookupAll(operations, cacheKeys, cachedUrls);
+            }
+            return new Fetch(url, etag, lastModified, pdf, cachedUrls, cacheKeys);
+        });
+        // Counted once the download is done; the handler runs again on every retry.
+        for (String operation : operations) {
+            if (fetch.cachedUrl(operation) != null)
+                hit(operation, url);
+            else
+                miss();
+        }
+        return fetch;
+    }
+
+    /**
+     * Collect the cached results of the operations
+     *
+     * @return whether all of them hit
+     */
+    private boolean lookupAll(List<String> operations, Map<String, String> cacheKeys,
+                              Map<String, String> cachedUrls) {
+        for (String operation : operations) {
+            String cached = lookup(cacheKeys.get(operation));
+            if (cached != null)
+                cachedUrls.put(operation, cached);
+        }
+        return cachedUrls.size() == operations.size();
+    }
+
+    /**
+     * @return the url of the cached result, null if there is none
+     */
+    private String lookup(String cacheKey) {
+        try {
+            if (Transport.blobs().exists(cacheKey, bucket))
+                return Transport.blobs().getObjectUrl(bucket, cacheKey);
+        } catch (RuntimeException ex) {
+            log.warn("result cache lookup of {} failed, converting. {}", cacheKey, ex.getMessage());
+        }
+        return null;
+    }
+
+    private synchronized void hit(String operation, String url) {
+        hits++;
+        log.debug("result cache hit: {} {}", operation, url);
+    }
+
+    private synchronized void miss() {
+        misses++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sha256Hex(String value) {
+        return toHex(sha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
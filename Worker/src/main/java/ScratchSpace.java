@@ -0,0 +1,83 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * A private working directory for a single task.
+ * Everything written under it is deleted when the scratch space is closed.
+ */
+public class ScratchSpace implements Closeable {
+    private final static Logger log = LoggerFactory.getLogger(ScratchSpace.class);
+
+    // Root directory for all scratch spaces, defaults to java.io.tmpdir.
+    // Set it to "tmpfs" to keep the scratch files in memory under /dev/shm.
+    private static final String SCRATCH_ROOT_PROPERTY = "worker.scratchDir";
+    private static final String TMPFS_ROOT = "/dev/shm";
+    private static final String TASK_DIR_PREFIX = "task-";
+
+    private final Path dir;
+
+    private ScratchSpace(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @return a new scratch space in a unique, empty directory
+     */
+    public static ScratchSpace create() throws IOException {
+        Path root = scratchRoot();
+        Path dir = root == null ? Files.createTempDirectory(TASK_DIR_PREFIX)
+                : Files.createTempDirectory(Files.createDirectories(root), TASK_DIR_PREFIX);
+        return new ScratchSpace(dir);
+    }
+
+    private static Path scratchRoot() {
+        String root = System.getProperty(SCRATCH_ROOT_PROPERTY);
+        if (root == null)
+            return null;
+        if (root.equals("tmpfs")) {
+            if (Files.isDirectory(Paths.get(TMPFS_ROOT)))
+                return Paths.get(TMPFS_ROOT);
+            log.warn("ScratchSpace: {} is not available, falling back to the default temp dir", TMPFS_ROOT);
+            return null;
+        }
+        return Paths.get(root);
+    }
+
+    /**
+     * @param fileName name of a file inside this scratch space
+     * @return the path of the file
+     */
+    public Path resolve(String fileName) {
+        return dir.resolve(fileName);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Delete the scratch directory and everything in it.
+     */
+    @Override
+    public void close() {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ex) {
+                    log.warn("ScratchSpace.close(): could not delete {}: {}", path, ex.getMessage());
+                }
+            });
+        } catch (IOException ex) {
+            log.warn("ScratchSpace.close(): could not clean {}: {}", dir, ex.getMessage());
+        }
+    }
+}
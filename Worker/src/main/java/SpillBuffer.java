@@ -0,0 +1,119 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * An output stream that keeps its content in memory up to a limit, and spills everything
+ * to a file once the limit is crossed. Small and medium pdfs and conversion outputs never touch
+ * the disk, while very large ones do not blow up the heap.
+ */
+public class SpillBuffer extends OutputStream {
+    public static final int DEFAULT_IN_MEMORY_LIMIT =
+            Integer.getInteger("worker.inMemoryLimit", 16 * 1024 * 1024);
+
+    private final Path spillFile;
+    private final int inMemoryLimit;
+    private Bytes memory = new Bytes();
+    private OutputStream fileOut;
+    private long size;
+
+    /**
+     * @param spillFile where to write the content if it grows beyond the default in-memory limit
+     */
+    public SpillBuffer(Path spillFile) {
+        this(spillFile, DEFAULT_IN_MEMORY_LIMIT);
+    }
+
+    public SpillBuffer(Path spillFile, int inMemoryLimit) {
+        this.spillFile = spillFile;
+        this.inMemoryLimit = inMemoryLimit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut == null && memory.size() + len > inMemoryLimit)
+            spill();
+        if (fileOut != null)
+            fileOut.write(b, off, len);
+        else
+            memory.write(b, off, len);
+        size += len;
+    }
+
+    private void spill() throws IOException {
+        fileOut = new BufferedOutputStream(Files.newOutputStream(spillFile));
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null)
+            fileOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null)
+            fileOut.close();
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isInMemory() {
+        return fileOut == null;
+    }
+
+    /**
+     * @return the spill file, only meaningful if the buffer is not in memory
+     */
+    public Path getFile() {
+        return spillFile;
+    }
+
+    /**
+     * @return the in memory content, shared with every other caller, so it must not be modified.
+     * Call only after the buffer was closed.
+     */
+    public byte[] getBytes() {
+        return memory.getBytes();
+    }
+
+    /**
+     * @return a new stream over the whole content. Call only after the buffer was closed.
+     */
+    public InputStream openInputStream() throws IOException {
+        return isInMemory() ? memory.openInputStream() : Files.newInputStream(spillFile);
+    }
+
+    /**
+     * Lets readers share the buffered bytes instead of copying them.
+     */
+    private static class Bytes extends ByteArrayOutputStream {
+        InputStream openInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        /**
+         * @return the buffer, trimmed to the content by a single copy the first time it is larger
+         */
+        synchronized byte[] getBytes() {
+            if (buf.length != count)
+                buf = Arrays.copyOf(buf, count);
+            return buf;
+        }
+    }
+}
@@ -1,7 +1,7 @@
-import org.apache.pdfbox.cos.COSDocument;
-import org.apache.pdfbox.io.RandomAccessFile;
-import org.apache.pdfbox.pdfparser.PDFParser;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -11,79 +11,278 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class Utils {
     private final static Logger log = LoggerFactory.getLogger(Utils.class);
 
     private static final String LOCAL_COPY_NAME = "local_copy";
     private static final String LOCAL_PDF_NAME = LOCAL_COPY_NAME + ".pdf";
-    private static final int CONNECTION_TIMEOUT = 3000;
-    private static final int READ_TIMEOUT = 3000;
-
-    private static void downloadRemoteFile(String url) throws IOException {
-        URL website = new URL(url);
-        HttpURLConnection conn = (HttpURLConnection) website.openConnection();
-        conn.setReadTimeout(READ_TIMEOUT);
-        conn.setConnectTimeout(CONNECTION_TIMEOUT);
-        int responseCode = conn.getResponseCode();
-        if (responseCode == 200) { // throws an error if cant connect
-            try (InputStream in = website.openStream()) {
-                Files.copy(in, Paths.get(LOCAL_PDF_NAME), StandardCopyOption.REPLACE_EXISTING);
-            }
-        } else { // manually raise error response not 200 ok
-            throw new IOException("Error response. error code: " + responseCode);
+
+    /**
+     * Download the pdf into memory, spilling to the scratch space only if it is very large.
+     */
+    public static SpillBuffer downloadRemoteFile(String url, ScratchSpace scratch) throws IOException {
+        return PdfDownloader.shared().download(url, scratch.resolve(LOCAL_PDF_NAME));
+    }
+
+    /**
+     * Parse a downloaded pdf. An in memory pdf is parsed over its buffered bytes, which PDFBox wraps
+     * without copying, so the documents loaded from it share them. Large documents are read from their
+     * spill file and let PDFBox keep its own buffers in the scratch space instead of the heap.
+     */
+    public static PDDocument loadDocument(SpillBuffer pdf, ScratchSpace scratch) throws IOException {
+        if (pdf.isInMemory())
+            return PDDocument.load(pdf.getBytes());
+        return PDDocument.load(pdf.getFile().toFile(),
+                MemoryUsageSetting.setupMixed(SpillBuffer.DEFAULT_IN_MEMORY_LIMIT)
+                        .setTempDir(scratch.getDir().toFile()));
+    }
+
+    public static SpillBuffer convertPdfToImage(String url, ScratchSpace scratch) throws IOException {
+        return convertPdfToImage(url, scratch, RenderProfile.DEFAULT);
+    }
+
+    public static SpillBuffer convertPdfToImage(String url, ScratchSpace scratch, RenderProfile profile) throws IOException {
+        SpillBuffer pdf = downloadRemoteFile(url, scratch);
+        try (PDDocument document = loadDocument(pdf, scratch)) {
+            return convertPdfToImage(document, pdf, scratch, profile);
         }
     }
 
-    public static String convertPdfToImage(String url) throws IOException {
-        log.debug("inside Utils.convertPdfToImage()");
-        downloadRemoteFile(url);
-        PDDocument document = PDDocument.load(new File(LOCAL_PDF_NAME));
-        PDFRenderer pdfRenderer = new PDFRenderer(document);
-        int pageCounter = 0;
-        BufferedImage bim = pdfRenderer.renderImageWithDPI(
-                pageCounter, 300, ImageType.RGB);
-        ImageIOUtil.writeImage(
-                bim, LOCAL_COPY_NAME + "-" + (pageCounter) + ".png", 300);
-        document.close();
-        return LOCAL_COPY_NAME + "-" + (pageCounter) + ".png";
+    /**
+     * Convert a loaded document. The caller keeps ownership of the document, so several
+     * operations can share a single download and parse.
+     *
+     * @param pdf the downloaded pdf the document was loaded from, parsed again by parallel page chunks
+     */
+    public static SpillBuffer convertPdfToImage(PDDocument document, SpillBuffer pdf, ScratchSpace scratch,
+                                                RenderProfile profile) throws IOException {
+        log.debug("inside Utils.convertPdfToImage() {}", profile);
+        SpillBuffer output = new SpillBuffer(scratch.resolve(LOCAL_COPY_NAME + "-0."
+                + profile.outputExtension(document.getNumberOfPages())));
+        try (SpillBuffer out = output) {
+            int first = profile.firstPageIndex();
+            int last = profile.lastPageIndex(document.getNumberOfPages());
+            if (first < last && ParallelPages.worthSplitting(last - first + 1, pdf))
+                writeImageInChunks(document, pdf, scratch, out, profile, first, last);
+            else
+                writeImage(document, out, profile);
+        }
+        return output;
+    }
+
+    public static SpillBuffer convertPdfToText(String url, ScratchSpace scratch) throws IOException {
+        SpillBuffer pdf = downloadRemoteFile(url, scratch);
+        try (PDDocument document = loadDocument(pdf, scratch)) {
+            return convertPdfToText(document, pdf, scratch);
+        }
     }
 
-    public static String convertPdfToText(String url) throws IOException {
+    public static SpillBuffer convertPdfToText(PDDocument document, SpillBuffer pdf, ScratchSpace scratch)
+            throws IOException {
         log.debug("inside Utils.convertPdfToText()");
-        downloadRemoteFile(url);
-        File file = new File(LOCAL_PDF_NAME);
-        String text;
-        PDFParser parser = new PDFParser(new RandomAccessFile(file, "r")); //read mode
-        parser.parse();
-        COSDocument cosDocument = parser.getDocument();
-        PDFTextStripper pdfTextStripper = new PDFTextStripper();
-        PDDocument pdDocument = new PDDocument(cosDocument);
-        text = pdfTextStripper.getText(pdDocument);
-        PrintWriter pw = new PrintWriter(LOCAL_COPY_NAME + ".txt");
-        pw.print(text);
-        pw.close();
-        cosDocument.close();
-        return LOCAL_COPY_NAME + ".txt";
-    }
-
-    public static String convertPdfToHtml(String url) throws IOException {
+        return convertPdfToText(document, pdf, scratch, ".txt", (firstChunk, lastChunk) -> new PDFTextStripper());
+    }
+
+    public static SpillBuffer convertPdfToHtml(String url, ScratchSpace scratch) throws IOException {
+        SpillBuffer pdf = downloadRemoteFile(url, scratch);
+        try (PDDocument document = loadDocument(pdf, scratch)) {
+            return convertPdfToHtml(document, pdf, scratch);
+        }
+    }
+
+    public static SpillBuffer convertPdfToHtml(PDDocument document, SpillBuffer pdf, ScratchSpace scratch)
+            throws IOException {
         log.debug("inside Utils.convertPdfToHtml()");
-        downloadRemoteFile(url);
-        PDDocument pdDocument = PDDocument.load(new File(LOCAL_PDF_NAME));
-        PDFText2HTML textStripper = new PDFText2HTML();
-        PrintWriter output = new PrintWriter(LOCAL_COPY_NAME + ".html", "utf-8");
-        textStripper.writeText(pdDocument, output);
-        output.close();
-        return LOCAL_COPY_NAME + ".html";
+        return convertPdfToText(document, pdf, scratch, ".html", ChunkHtmlStripper::new);
+    }
+
+    private static SpillBuffer convertPdfToText(PDDocument document, SpillBuffer pdf, ScratchSpace scratch,
+                                                String extension, StripperFactory strippers) throws IOException {
+        SpillBuffer output = new SpillBuffer(scratch.resolve(LOCAL_COPY_NAME + extension));
+        try (SpillBuffer out = output) {
+            if (ParallelPages.worthSplitting(document, pdf))
+                writeTextInChunks(document, pdf, scratch, out, extension, strippers);
+            else
+                writeText(document, out, strippers.create(true, true));
+        }
+        return output;
+    }
+
+    /**
+     * Extract the document a chunk of pages per pool thread, then append the chunks in page order.
+     */
+    private static void writeTextInChunks(PDDocument document, SpillBuffer pdf, ScratchSpace scratch, OutputStream out,
+                                          String extension, StripperFactory strippers) throws IOException {
+        int numOfPages = document.getNumberOfPages();
+        List<SpillBuffer> chunks = ParallelPages.convert(document, pdf, scratch, 0, numOfPages - 1,
+                ParallelPages.pagesPerChunk(numOfPages, pdf), (chunkDocument, first, last, index, numOfChunks) -> {
+                    PDFTextStripper stripper = strippers.create(index == 0, index == numOfChunks - 1);
+                    stripper.setStartPage(first + 1);
+                    stripper.setEndPage(last + 1);
+                    SpillBuffer chunk = new SpillBuffer(scratch.resolve("chunk-" + index + extension));
+                    try (SpillBuffer chunkOut = chunk) {
+                        writeText(chunkDocument, chunkOut, stripper);
+                    }
+                    return chunk;
+                });
+        for (SpillBuffer chunk : chunks) {
+            try (InputStream in = chunk.openInputStream()) {
+                copy(in, out);
+            }
+        }
+    }
+
+    /**
+     * Render the selected pages a chunk per pool thread, then zip them in page order.
+     * Page images go straight to the scratch space, since hundreds of them may be waiting for the zip.
+     */
+    private static void writeImageInChunks(PDDocument document, SpillBuffer pdf, ScratchSpace scratch, OutputStream out,
+                                           RenderProfile profile, int first, int last) throws IOException {
+        List<List<SpillBuffer>> chunks = ParallelPages.convert(document, pdf, scratch, first, last,
+                ParallelPages.pagesPerChunk(last - first + 1, pdf),
+                (chunkDocument, chunkFirst, chunkLast, index, numOfChunks) -> {
+                    PDFRenderer pdfRenderer = new PDFRenderer(chunkDocument);
+                    List<SpillBuffer> pages = new ArrayList<>();
+                    for (int page = chunkFirst; page <= chunkLast; page++) {
+                        SpillBuffer image = new SpillBuffer(scratch.resolve(pageEntryName(page, profile)), 0);
+                        try (SpillBuffer imageOut = image) {
+                            writePage(chunkDocument, pdfRenderer, page, profile, imageOut);
+                        }
+                        pages.add(image);
+                    }
+                    return pages;
+                });
+        ZipOutputStream zip = new ZipOutputStream(out);
+        int page = first;
+        for (List<SpillBuffer> chunk : chunks) {
+            for (SpillBuffer image : chunk) {
+                zip.putNextEntry(new ZipEntry(pageEntryName(page++, profile)));
+                try (InputStream in = image.openInputStream()) {
+                    copy(in, zip);
+                }
+                zip.closeEntry();
+            }
+        }
+        zip.finish();
+    }
+
+    private static String pageEntryName(int pageIndex, RenderProfile profile) {
+        return "page-" + (pageIndex + 1) + "." + profile.getFormat();
+    }
+
+    public static void writeImage(PDDocument document, OutputStream out) throws IOException {
+        writeImage(document, out, RenderProfile.DEFAULT);
+    }
+
+    /**
+     * Render the first page at the given resolution and color type, as a png.
+     */
+    public static void writeImage(PDDocument document, OutputStream out, int dpi, ImageType imageType) throws IOException {
+        writeImage(document, out, RenderProfile.DEFAULT.withDpi(dpi).withImageType(imageType));
+    }
+
+    /**
+     * Render the pages selected by the profile. A single page is written as one image,
+     * several pages as a zip of page-N images.
+     */
+    public static void writeImage(PDDocument document, OutputStream out, RenderProfile profile) throws IOException {
+        int first = profile.firstPageIndex();
+        int last = profile.lastPageIndex(document.getNumberOfPages());
+        if (first > last)
+            throw new IOException("document has no page " + (first + 1) + ", only " + document.getNumberOfPages());
+        PDFRenderer pdfRenderer = new PDFRenderer(document);
+        if (first == last) {
+            writePage(document, pdfRenderer, first, profile, out);
+            return;
+        }
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (int page = first; page <= last; page++) {
+            zip.putNextEntry(new ZipEntry(pageEntryName(page, profile)));
+            writePage(document, pdfRenderer, page, profile, zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    private static void writePage(PDDocument document, PDFRenderer pdfRenderer, int pageIndex, RenderProfile profile,
+                                  OutputStream out) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle box = page.getCropBox();
+        boolean rotated = page.getRotation() % 180 != 0;
+        float scale = rotated ? profile.scaleFor(box.getHeight(), box.getWidth())
+                : profile.scaleFor(box.getWidth(), box.getHeight());
+        BufferedImage bim = pdfRenderer.renderImage(pageIndex, scale, profile.getImageType());
+        int dpi = Math.round(scale * 72);
+        if (profile.getFormat().equals("jpg"))
+            ImageIOUtil.writeImage(bim, "jpg", out, dpi, profile.getQuality());
+        else
+            ImageIOUtil.writeImage(bim, "png", out, dpi);
+    }
+
+    public static void writeText(PDDocument document, OutputStream out) throws IOException {
+        writeText(document, out, new PDFTextStripper());
+    }
+
+    public static void writeHtml(PDDocument document, OutputStream out) throws IOException {
+        writeText(document, out, new PDFText2HTML());
+    }
+
+    /**
+     * Extract the document with the given stripper (a PDFText2HTML for html). A stripper may be reused
+     * for several documents, but not by two threads at once.
+     */
+    public static void writeText(PDDocument document, OutputStream out, PDFTextStripper stripper) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        stripper.writeText(document, writer);
+        writer.flush();
+    }
+
+    private interface StripperFactory {
+        PDFTextStripper create(boolean firstChunk, boolean lastChunk) throws IOException;
+    }
+
+    /**
+     * Html of a chunk of pages: only the first chunk writes the html head and only the last one closes
+     * the document, so the chunks can be appended into one page.
+     */
+    private static class ChunkHtmlStripper extends PDFText2HTML {
+        private final boolean firstChunk;
+        private final boolean lastChunk;
+
+        ChunkHtmlStripper(boolean firstChunk, boolean lastChunk) throws IOException {
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+
+        @Override
+        protected void startDocument(PDDocument document) throws IOException {
+            if (firstChunk)
+                super.startDocument(document);
+        }
+
+        @Override
+        public void endDocument(PDDocument document) throws IOException {
+            if (lastChunk)
+                super.endDocument(document);
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
     }
 }
@@ -1,37 +1,112 @@
+import org.apache.pdfbox.pdmodel.PDDocument;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import software.amazon.awssdk.core.exception.SdkClientException;
 import software.amazon.awssdk.services.sqs.model.Message;
-import software.amazon.awssdk.services.sqs.model.SqsException;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class Worker {
     private final static Logger log = LoggerFactory.getLogger(Worker.class);
+    // Tasks spend most of their time waiting on the pdf download and the s3 upload,
+    // so run more slots than cores to keep the cpu busy with conversions meanwhile.
+    private static final int DEFAULT_NUM_OF_SLOTS = Runtime.getRuntime().availableProcessors() * 2;
+    // Separates the operations of a grouped task, "TOTEXT,TOIMAGE;dpi=72"
+    private static final String OPERATIONS_SEPARATOR = ",";
+    private static final ResultCache resultCache = ResultCache.ENABLED ? new ResultCache(S3Utils.PRIVATE_BUCKET) : null;
 
     public static void main(String[] args) throws InterruptedException {
         String inputQName = args[0];
         String outputQNamePrefix = args[1];
-        String outputQName;
-        while (true) {
+        int numOfSlots = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_OF_SLOTS;
+        log.info("worker: running with {} task slots", numOfSlots);
+        Transport.blobs().ensureBucket(S3Utils.PRIVATE_BUCKET);
+        registerMetrics();
+        ExecutorService slots = Executors.newFixedThreadPool(numOfSlots);
+        // A message is received only when some slot is free to handle it,
+        // so no message waits out its visibility timeout inside this worker.
+        Semaphore freeSlots = new Semaphore(numOfSlots);
+        SQSPoller poller = new SQSPoller(inputQName);
+        // One per worker: the local compute provisioner runs several workers in a single process.
+        ResultBatcher resultBatcher = new ResultBatcher(inputQName);
+        boolean terminate = false;
+        try {
             try {
-                Message message = SQSUtils.recieveMSG(inputQName);
-                if (message != null) {
-                    if (message.body().toLowerCase().equals("terminate")) {
-                        log.info("worker: shutting down... goodbye");
-                        break;
+                while (!terminate) {
+                    freeSlots.acquire();
+                    // Reserve the other free slots as well, so a single receive can fill all of them.
+                    int reserved = 1 + tryAcquireUpTo(freeSlots, QueueService.MAX_BATCH_SIZE - 1);
+                    int delegated = 0;
+                    try {
+                        for (Message message : poller.poll(reserved)) {
+                            if (message.body().toLowerCase().equals("terminate")) {
+                                log.info("worker: shutting down... goodbye");
+                                terminate = true;
+                                continue;
+                            }
+                            log.debug(message.body());
+                            String appId = extractOutQName(message);
+                            String outputQName = outputQNamePrefix + appId;
+                            slots.execute(() -> {
+                                try {
+                                    handleNewPDFTask(message, outputQName, appId, resultBatcher);
+                                } finally {
+                                    freeSlots.release();
+                                }
+                            });
+                            delegated++;
+                        }
+                    } finally {
+                        freeSlots.release(reserved - delegated);
                     }
-                    log.debug(message.body());
-                    String appId = extractOutQName(message);
-                    outputQName = outputQNamePrefix + appId;
-                    handleNewPDFTask(message, outputQName, inputQName, appId);
                 }
-            } catch (SqsException | SdkClientException sqsExecption) {
-                log.error("Worker.main(): got SqsException... " + sqsExecption.getMessage() +
-                        "\nsleeping & retrying!");
-                Thread.sleep(1000);
+            } finally {
+                // Also reached when the worker thread is interrupted, e.g. by the local compute provisioner.
+                slots.shutdown();
             }
+            log.info("worker: made {} empty receives on {}", poller.getEmptyReceives(), inputQName);
+            slots.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            // Send the results held so far, also when interrupted. Tasks still running then send theirs right away.
+            resultBatcher.close();
+        }
+        log.info("worker: {}", resultBatcher);
+        if (resultCache != null)
+            log.info("worker: result cache hits: {}, misses: {}", resultCache.getHits(), resultCache.getMisses());
+        log.info("worker: {}", PdfDownloader.shared());
+        Metrics.flush();
+    }
+
+    private static void registerMetrics() {
+        PdfDownloader downloader = PdfDownloader.shared();
+        Metrics.gauge("worker.http.requests", downloader::getRequests);
+        Metrics.gauge("worker.http.retries", downloader::getRetries);
+        Metrics.gauge("worker.http.failures", downloader::getFailures);
+        Metrics.gauge("worker.http.bytes", downloader::getBytes);
+        Metrics.gauge("worker.http.maxLatencyMillis", downloader::getMaxLatencyMillis);
+        if (resultCache != null) {
+            Metrics.gauge("worker.resultCache.hits", resultCache::getHits);
+            Metrics.gauge("worker.resultCache.misses", resultCache::getMisses);
+        }
+        Metrics.start("worker");
+    }
+
+    /**
+     * @return how many permits, up to max, were acquired without blocking
+     */
+    private static int tryAcquireUpTo(Semaphore semaphore, int max) {
+        int acquired = 0;
+        while (acquired < max && semaphore.tryAcquire()) {
+            acquired++;
         }
+        return acquired;
     }
 
     private static String extractOutQName(Message message) {
@@ -39,45 +114,118 @@ public class Worker {
     }
 
     /**
-     * process new pdf task on given url
-     * upload output file to s3
-     * send completed message to outputQName
-     * delete handled message from inputQName
+     * process new pdf task on given url, for one operation or a group of them ("TOTEXT,TOIMAGE url appId").
+     * The pdf is downloaded and parsed once for all the operations of a group.
+     * upload each output file to s3
+     * report a completed (or failed) line per operation to outputQName, batched with the results of other tasks
+     * the handled message is deleted once its results are sent
      *
      * @param message
      * @param outputQName
-     * @param inputQName
+     * @param resultBatcher batches the result lines of this worker
      */
-    private static void handleNewPDFTask(Message message, String outputQName, String inputQName, String appId) {
+    private static void handleNewPDFTask(Message message, String outputQName, String appId,
+                                         ResultBatcher resultBatcher) {
         String[] operationUrlPair = message.body().split("\\s+");
-        String operationName = operationUrlPair[0].toUpperCase();
+        List<String> operations = new ArrayList<>();
+        for (String operation : operationUrlPair[0].split(OPERATIONS_SEPARATOR)) {
+            operations.add(normalizeOperation(operation));
+        }
         String pdfS3PathToProcess = operationUrlPair[1];
-        log.debug("worker: message body - operation name: " + operationName + ", pdf url:  " + pdfS3PathToProcess);
-        String outFilePath;
-        try {
-            outFilePath = processOperation(operationName, pdfS3PathToProcess);
-            String fileKey = appId + "/" + "output" + String.valueOf(System.currentTimeMillis());
-            String bucket = S3Utils.uploadFile(outFilePath, fileKey);
-            String remoteOutputURL = "https://" + bucket + ".s3.amazonaws.com/" + fileKey;
-            SQSUtils.sendMSG(outputQName, buildCompletedMessage(operationName, pdfS3PathToProcess, remoteOutputURL));
+        log.debug("worker: message body - operations: " + operations + ", pdf url:  " + pdfS3PathToProcess);
+        List<String> results = new ArrayList<>(operations.size());
+        try (ScratchSpace scratch = ScratchSpace.create()) {
+            // A single download serves all the operations of the group, so it is not timed per operation.
+            long start = System.currentTimeMillis();
+            ResultCache.Fetch fetch = resultCache != null
+                    ? resultCache.fetch(operations, pdfS3PathToProcess, scratch) : null;
+            SpillBuffer pdf = fetch != null ? fetch.getPdf() : Utils.downloadRemoteFile(pdfS3PathToProcess, scratch);
+            Metrics.histogram("worker.download").record(System.currentTimeMillis() - start);
+            PDDocument document = null;
+            try {
+                for (String operationName : operations) {
+                    String operationType = operationType(operationName);
+                    try {
+                        String remoteOutputURL = fetch != null ? fetch.cachedUrl(operationName) : null;
+                        if (remoteOutputURL == null) {
+                            start = System.currentTimeMillis();
+                            if (document == null)
+                                document = Utils.loadDocument(pdf, scratch);
+                            SpillBuffer output = processOperation(operationName, document, pdf, scratch);
+                            Metrics.histogram("worker.convert", "op", operationType)
+                                    .record(System.currentTimeMillis() - start);
+                            start = System.currentTimeMillis();
+                            remoteOutputURL = fetch != null ? fetch.store(operationName, output) : upload(output, appId);
+                            Metrics.histogram("worker.upload", "op", operationType)
+                                    .record(System.currentTimeMillis() - start);
+                        } else {
+                            Metrics.counter("worker.tasks.cached", "op", operationType).increment();
+                        }
+                        results.add(buildCompletedMessage(operationName, pdfS3PathToProcess, remoteOutputURL));
+                        Metrics.counter("worker.tasks.completed", "app", appId).increment();
+                    } catch (Exception e) {
+                        results.add(handleFailure(e, pdfS3PathToProcess, operationName));
+                        Metrics.counter("worker.tasks.failed", "app", appId).increment();
+                    }
+                }
+            } finally {
+                if (document != null)
+                    document.close();
+            }
         } catch (Exception e) {
-            handleFailure(e, pdfS3PathToProcess, operationName, outputQName);
+            // The download failed (or the scratch space could not be made), which fails every operation left.
+            for (String operationName : operations.subList(results.size(), operations.size())) {
+                results.add(handleFailure(e, pdfS3PathToProcess, operationName));
+                Metrics.counter("worker.tasks.failed", "app", appId).increment();
+            }
         } finally {
-            SQSUtils.deleteMSG(message, inputQName);
+            resultBatcher.add(outputQName, results, message);
+        }
+
+    }
+
+    /**
+     * @return the url of the uploaded output, named with the extension of its scratch file (e.g. ".zip")
+     */
+    private static String upload(SpillBuffer output, String appId) throws IOException {
+        String fileName = output.getFile().getFileName().toString();
+        String extension = fileName.contains(".") ? fileName.substring(fileName.lastIndexOf('.')) : "";
+        String fileKey = appId + "/" + "output" + UUID.randomUUID() + extension;
+        try (InputStream in = output.openInputStream()) {
+            Transport.blobs().uploadStream(in, output.size(), S3Utils.PRIVATE_BUCKET, fileKey);
         }
+        return Transport.blobs().getObjectUrl(S3Utils.PRIVATE_BUCKET, fileKey);
+    }
 
+    /**
+     * @return the operation with its name upper cased, keeping its options (e.g. "TOIMAGE;dpi=72") as given
+     */
+    private static String normalizeOperation(String operation) {
+        int options = operation.indexOf(RenderProfile.OPTIONS_SEPARATOR);
+        if (options < 0)
+            return operation.toUpperCase();
+        return operation.substring(0, options).toUpperCase() + operation.substring(options);
+    }
+
+    /**
+     * @return the operation name without its options, one of PDFOperationType
+     */
+    private static String operationType(String operationName) {
+        return operationName.split(RenderProfile.OPTIONS_SEPARATOR)[0];
     }
 
-    private static String processOperation(String operationName, String pdfS3PathToProcess) throws IOException {
-        String outFilePath;
-        if (operationName.equals(PDFOperationType.TOIMAGE.name())) {
-            outFilePath = Utils.convertPdfToImage(pdfS3PathToProcess);
-        } else if (operationName.equals(PDFOperationType.TOHTML.name())) {
-            outFilePath = Utils.convertPdfToHtml(pdfS3PathToProcess);
+    private static SpillBuffer processOperation(String operationName, PDDocument document, SpillBuffer pdf,
+                                                ScratchSpace scratch) throws IOException {
+        SpillBuffer output;
+        String baseName = operationType(operationName);
+        if (baseName.equals(PDFOperationType.TOIMAGE.name())) {
+            output = Utils.convertPdfToImage(document, pdf, scratch, RenderProfile.parse(operationName));
+        } else if (baseName.equals(PDFOperationType.TOHTML.name())) {
+            output = Utils.convertPdfToHtml(document, pdf, scratch);
         } else {
-            outFilePath = Utils.convertPdfToText(pdfS3PathToProcess);
+            output = Utils.convertPdfToText(document, pdf, scratch);
         }
-        return outFilePath;
+        return output;
     }
 
     private static String buildCompletedMessage(String operationName, String inputFileURL, String remoteOutputURL) {
@@ -88,8 +236,11 @@ public class Worker {
         return opName + ": " + inputFile + " " + e.getMessage();
     }
 
-    private static void handleFailure(Exception e, String inputFile, String opName, String outQName) {
+    /**
+     * @return the failure line to report
+     */
+    private static String handleFailure(Exception e, String inputFile, String opName) {
         log.warn("Failure: " + e);
-        SQSUtils.sendMSG(outQName, buildFailedMessage(e, inputFile, opName));
+        return buildFailedMessage(e, inputFile, opName);
     }
 }
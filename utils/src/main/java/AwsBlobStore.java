@@ -0,0 +1,52 @@
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Blobs on Amazon S3.
+ */
+public class AwsBlobStore implements BlobStore {
+    @Override
+    public void ensureBucket(String bucket) {
+        Metrics.timed("s3.ensureBucket", () -> S3Utils.ensureBucket(bucket));
+    }
+
+    @Override
+    public void uploadFile(File file, String bucket, String key) {
+        Metrics.timed("s3.uploadFile", () -> S3Utils.uploadFile(file, bucket, key));
+    }
+
+    @Override
+    public void uploadStream(InputStream in, long contentLength, String bucket, String key) {
+        Metrics.timed("s3.uploadStream", () -> S3Utils.uploadStream(in, contentLength, bucket, key));
+    }
+
+    @Override
+    public Upload openUpload(String bucket, String key) {
+        return Metrics.timed("s3.openUpload", () -> S3Utils.openUpload(bucket, key));
+    }
+
+    @Override
+    public InputStream getObjectStream(String fileKey, String bucket) {
+        return Metrics.timed("s3.getObjectStream", () -> S3Utils.getObjectStream(fileKey, bucket));
+    }
+
+    @Override
+    public void getObjectToLocal(String fileKey, String bucket, String localFilePath) {
+        Metrics.timed("s3.getObjectToLocal", () -> S3Utils.getObjectToLocal(fileKey, bucket, localFilePath));
+    }
+
+    @Override
+    public long getObjectSize(String fileKey, String bucket) {
+        return Metrics.timed("s3.getObjectSize", () -> S3Utils.getObjectSize(fileKey, bucket));
+    }
+
+    @Override
+    public boolean exists(String fileKey, String bucket) {
+        return Metrics.timed("s3.exists", () -> S3Utils.exists(fileKey, bucket));
+    }
+
+    @Override
+    public String getObjectUrl(String bucket, String key) {
+        return "https://" + bucket + ".s3.amazonaws.com/" + key;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Manager and workers on Amazon EC2 instances.
+ */
+public class AwsComputeProvisioner implements ComputeProvisioner {
+    @Override
+    public boolean isInstanceRunning(String instanceName) {
+        return Metrics.timed("ec2.isInstanceRunning", () -> EC2Utils.isInstanceRunning(instanceName));
+    }
+
+    @Override
+    public void launchManager() {
+        Metrics.timed("ec2.launchManager", () -> EC2Utils.bootstrapManager());
+    }
+
+    @Override
+    public void launchWorkers(int count, String tasksQName, String workerOutputQName) {
+        Metrics.timed("ec2.launchWorkers", () -> EC2Utils.bootstrapWorkers(count, tasksQName, workerOutputQName));
+    }
+
+    @Override
+    public int numOfRunningWorkers() {
+        return Metrics.timed("ec2.numOfRunningWorkers", () -> EC2Utils.numOfRunningWorkers());
+    }
+
+    @Override
+    public int terminateWorkers(int count) {
+        return Metrics.timed("ec2.terminateWorkers", () -> EC2Utils.terminateWorkers(count));
+    }
+
+    @Override
+    public void terminateAll() {
+        Metrics.timed("ec2.terminateAll", () -> EC2Utils.terminateEc2Instances());
+    }
+}
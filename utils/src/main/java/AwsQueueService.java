@@ -0,0 +1,50 @@
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queues on Amazon SQS.
+ */
+public class AwsQueueService implements QueueService {
+    @Override
+    public void sendMSG(String qName, String messageBody, int delaySeconds) {
+        Metrics.timed("sqs.sendMSG", () -> SQSUtils.sendMSG(qName, messageBody, delaySeconds));
+    }
+
+    @Override
+    public List<String> sendMSGs(String qName, List<String> messageBodies, int delaySeconds) {
+        return Metrics.timed("sqs.sendMSGs", () -> SQSUtils.sendMSGs(qName, messageBodies, delaySeconds));
+    }
+
+    @Override
+    public List<Message> receiveMSGs(String qName, int maxNumOfMessages, int waitTime) {
+        return Metrics.timed("sqs.receiveMSGs", () -> SQSUtils.recieveMSGs(qName, maxNumOfMessages, waitTime));
+    }
+
+    @Override
+    public void deleteMSG(Message msg, String qName) {
+        Metrics.timed("sqs.deleteMSG", () -> SQSUtils.deleteMSG(msg, qName));
+    }
+
+    @Override
+    public List<Message> deleteMSGs(List<Message> msgs, String qName) {
+        return Metrics.timed("sqs.deleteMSGs", () -> SQSUtils.deleteMSGs(msgs, qName));
+    }
+
+    @Override
+    public String buildQueueIfNotExists(String qName, Map<QueueAttributeName, String> attributes) {
+        return Metrics.timed("sqs.buildQueueIfNotExists", () -> SQSUtils.buildQueueIfNotExists(qName, attributes));
+    }
+
+    @Override
+    public void deleteQ(String qName) {
+        Metrics.timed("sqs.deleteQ", () -> SQSUtils.deleteQ(qName));
+    }
+
+    @Override
+    public Map<QueueAttributeName, String> getQueueAttributes(String qName, QueueAttributeName... names) {
+        return Metrics.timed("sqs.getQueueAttributes", () -> SQSUtils.getQueueAttributes(qName, names));
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Storage for the input files, the conversion outputs and the summary files.
+ */
+public interface BlobStore {
+    /**
+     * An object written as a stream. It is published on close, and dropped by abort.
+     */
+    abstract class Upload extends OutputStream {
+        public abstract void abort();
+    }
+
+    /**
+     * Create the bucket unless it exists. Idempotent and cheap to repeat; call it once at startup
+     * so the uploads do not have to.
+     */
+    void ensureBucket(String bucket);
+
+    void uploadFile(File file, String bucket, String key);
+
+    void uploadStream(InputStream in, long contentLength, String bucket, String key);
+
+    /**
+     * Start an upload of content that is not known up front. The caller must close or abort it.
+     */
+    Upload openUpload(String bucket, String key);
+
+    /**
+     * @return a stream over the object content. The caller must close it.
+     */
+    InputStream getObjectStream(String fileKey, String bucket);
+
+    void getObjectToLocal(String fileKey, String bucket, String localFilePath);
+
+    long getObjectSize(String fileKey, String bucket);
+
+    boolean exists(String fileKey, String bucket);
+
+    /**
+     * @return the url an uploaded object is published under
+     */
+    String getObjectUrl(String bucket, String key);
+}
@@ -0,0 +1,25 @@
+/**
+ * Starts and stops the manager and the workers.
+ */
+public interface ComputeProvisioner {
+    /**
+     * @return true iff an instance with this name is running
+     */
+    boolean isInstanceRunning(String instanceName);
+
+    void launchManager();
+
+    void launchWorkers(int count, String tasksQName, String workerOutputQName);
+
+    int numOfRunningWorkers();
+
+    /**
+     * @return number of workers asked to terminate
+     */
+    int terminateWorkers(int count);
+
+    /**
+     * Terminate all the workers and the manager
+     */
+    void terminateAll();
+}
@@ -0,0 +1,144 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.ec2.model.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Cached view of the live (pending or running) named instances.
+ * The instances are listed with server side filters, so a refresh only pages through our own fleet
+ * and not through every instance of the account. The snapshot is shared by all threads and refreshed
+ * at most once per ttl. Instances launched or terminated by this process are reflected right away,
+ * even before DescribeInstances catches up with them.
+ */
+public class EC2Fleet {
+    private final static Logger log = LoggerFactory.getLogger(EC2Fleet.class);
+
+    public static final long DEFAULT_TTL_MILLIS = Long.getLong("ec2.fleetTtlMillis", 5000);
+    // How long a launched instance is counted even if DescribeInstances does not return it yet.
+    private static final long LAUNCH_GRACE_MILLIS = 60000;
+    private static final String NAME_TAG = "name";
+
+    private final Ec2Client ec2;
+    private final long ttlMillis;
+    // instance id -> name tag value
+    private Map<String, String> instances = new HashMap<>();
+    private long fetchedAt = Long.MIN_VALUE / 2;
+    private final Map<String, Launched> launched = new ConcurrentHashMap<>();
+
+    private static class Launched {
+        final String name;
+        final long launchedAt;
+
+        Launched(String name, long launchedAt) {
+            this.name = name;
+            this.launchedAt = launchedAt;
+        }
+    }
+
+    public EC2Fleet(Ec2Client ec2) {
+        this(ec2, DEFAULT_TTL_MILLIS);
+    }
+
+    public EC2Fleet(Ec2Client ec2, long ttlMillis) {
+        this.ec2 = ec2;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return true iff a live instance has exactly this name
+     */
+    public boolean isRunning(String name) {
+        return !instanceIds(name::equals).isEmpty();
+    }
+
+    /**
+     * @return number of live instances whose name contains the given role, ignoring case
+     */
+    public int numOfRunning(String role) {
+        return instanceIds(role).size();
+    }
+
+    /**
+     * @return ids of the live instances whose name contains the given role, ignoring case
+     */
+    public List<String> instanceIds(String role) {
+        String lowerRole = role.toLowerCase();
+        return instanceIds(name -> name.toLowerCase().contains(lowerRole));
+    }
+
+    private synchronized List<String> instanceIds(Predicate<String> nameFilter) {
+        long now = System.currentTimeMillis();
+        if (now - fetchedAt >= ttlMillis)
+            refresh(now);
+        Map<String, String> live = new HashMap<>(instances);
+        launched.forEach((id, instance) -> {
+            if (now - instance.launchedAt < LAUNCH_GRACE_MILLIS)
+                live.putIfAbsent(id, instance.name);
+        });
+        List<String> ids = new ArrayList<>();
+        live.forEach((id, name) -> {
+            if (nameFilter.test(name))
+                ids.add(id);
+        });
+        return ids;
+    }
+
+    private void refresh(long now) {
+        Map<String, String> fresh = new HashMap<>();
+        String nextToken = null;
+        do {
+            DescribeInstancesRequest request = DescribeInstancesRequest.builder()
+                    .filters(Filter.builder().name("instance-state-name").values("pending", "running").build(),
+                            Filter.builder().name("tag-key").values(NAME_TAG).build())
+                    .nextToken(nextToken)
+                    .build();
+            DescribeInstancesResponse response = ec2.describeInstances(request);
+            for (Reservation reservation : response.reservations()) {
+                for (Instance instance : reservation.instances()) {
+                    for (Tag tag : instance.tags()) {
+                        if (tag.key().equals(NAME_TAG))
+                            fresh.put(instance.instanceId(), tag.value());
+                    }
+                }
+            }
+            nextToken = response.nextToken();
+        } while (nextToken != null);
+        instances = fresh;
+        fetchedAt = now;
+        launched.entrySet().removeIf(entry -> fresh.containsKey(entry.getKey())
+                || now - entry.getValue().launchedAt >= LAUNCH_GRACE_MILLIS);
+        log.debug("EC2Fleet: refreshed, {} live instances", fresh.size());
+    }
+
+    /**
+     * Count an instance this process just launched.
+     */
+    public void recordLaunched(String instanceId, String name) {
+        launched.put(instanceId, new Launched(name, System.currentTimeMillis()));
+    }
+
+    /**
+     * Stop counting instances this process just terminated.
+     */
+    public synchronized void recordTerminated(Collection<String> instanceIds) {
+        Map<String, String> live = new HashMap<>(instances);
+        live.keySet().removeAll(instanceIds);
+        instances = live;
+        launched.keySet().removeAll(instanceIds);
+    }
+
+    /**
+     * Force the next query to list the instances again.
+     */
+    public synchronized void invalidate() {
+        fetchedAt = Long.MIN_VALUE / 2;
+    }
+}
@@ -8,7 +8,6 @@ import software.amazon.awssdk.utils.CollectionUtils;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class EC2Utils {
     private final static Logger log = LoggerFactory.getLogger(EC2Utils.class);
@@ -17,6 +16,8 @@ public class EC2Utils {
             .region(Region.US_EAST_1)
             .build();
     private final static String amiId = "ami-076515f20540e6e0b";
+    // Shared view of our instances, so counting them does not scan the whole account every time.
+    private final static EC2Fleet fleet = new EC2Fleet(ec2);
 
 
     public static void createEc2Instance(String ec2Name, String userDataScript, int instancesCount) {
@@ -44,6 +45,9 @@ public class EC2Utils {
                 .build();
         RunInstancesResponse response = ec2.runInstances(runRequest);
         int numOfRetries = 0;
+        for (int i = 0; i < instancesCount; i++) {
+            fleet.recordLaunched(response.instances().get(i).instanceId(), ec2Name[i]);
+        }
         for (int i = 0; i < instancesCount; i++) {
             String instanceId = response.instances().get(i).instanceId();
             Tag tag = Tag.builder()
@@ -77,77 +81,26 @@ public class EC2Utils {
      * @return true iff the manager running
      */
     public static boolean isInstanceRunning(String instanceName) {
-        String nextToken = null;
-        do {
-            DescribeInstancesRequest request = DescribeInstancesRequest.builder().nextToken(nextToken).build();
-            DescribeInstancesResponse response = ec2.describeInstances(request);
-
-            for (Reservation reservation : response.reservations()) {
-                for (Instance instance : reservation.instances()) {
-                    List<Tag> tagList = instance.tags();
-                    for (Tag tag : tagList) {
-                        if (tag.value().equals(instanceName) &&
-                                (instance.state().name().toString().equals("running") ||
-                                        instance.state().name().toString().equals("pending")))
-                            return true;
-                    }
-                }
-            }
-            nextToken = response.nextToken();
-        } while (nextToken != null);
-
-        return false;
+        return fleet.isRunning(instanceName);
     }
 
     /**
      * Terminate all running ec2 instances
      */
     public static void terminateEc2Instances() {
-        String nextToken = null;
-        do {
-            DescribeInstancesRequest dRequest = DescribeInstancesRequest.builder().nextToken(nextToken).build();
-            DescribeInstancesResponse response = ec2.describeInstances(dRequest);
-            List<String> workerInstanceIds = new ArrayList<>();
-            for (Reservation reservation : response.reservations()) {
-                workerInstanceIds.addAll(reservation.instances().stream()
-                        .filter(ins -> !ins.tags().isEmpty()
-                                && ins.tags().stream().anyMatch(tag -> tag.key().toLowerCase().equals("name")
-                                && tag.value().toLowerCase().contains("worker"))
-                                && !ins.state().name().equals(InstanceStateName.TERMINATED)
-                        )
-                        .map(Instance::instanceId)
-                        .collect(Collectors.toList()));
-            }
-            if (!CollectionUtils.isNullOrEmpty(workerInstanceIds)) {
-                log.info("killing {} workers!", workerInstanceIds.size());
-                TerminateInstancesRequest request = TerminateInstancesRequest.builder()
-                        .instanceIds(workerInstanceIds)
-                        .build();
-                ec2.terminateInstances(request);
-                log.info("killed {} workers!", workerInstanceIds.size());
-            }
-            List<String> managerIds = new ArrayList<>();
-            for (Reservation reservation : response.reservations()) {
-                managerIds.addAll(reservation.instances().stream()
-                        .filter(ins -> !ins.tags().isEmpty()
-                                && ins.tags().stream().anyMatch(tag -> tag.key().toLowerCase().equals("name")
-                                && tag.value().toLowerCase().contains("manager"))
-                                && !ins.state().name().equals(InstanceStateName.TERMINATED)
-                        )
-                        .map(Instance::instanceId)
-                        .collect(Collectors.toList()));
-
-            }
-            if (!CollectionUtils.isNullOrEmpty(managerIds)) {
-                log.info("killing {} managers!", managerIds.size());
-                TerminateInstancesRequest request = TerminateInstancesRequest.builder()
-                        .instanceIds(managerIds)
-                        .build();
-                ec2.terminateInstances(request);
-                log.info("killed {} managers!", managerIds.size());
-            }
-            nextToken = response.nextToken();
-        } while (nextToken != null);
+        fleet.invalidate();
+        List<String> workerInstanceIds = fleet.instanceIds("worker");
+        if (!CollectionUtils.isNullOrEmpty(workerInstanceIds)) {
+            log.info("killing {} workers!", workerInstanceIds.size());
+            terminate(workerInstanceIds);
+            log.info("killed {} workers!", workerInstanceIds.size());
+        }
+        List<String> managerIds = fleet.instanceIds("manager");
+        if (!CollectionUtils.isNullOrEmpty(managerIds)) {
+            log.info("killing {} managers!", managerIds.size());
+            terminate(managerIds);
+            log.info("killed {} managers!", managerIds.size());
+        }
     }
 
 
@@ -156,58 +109,30 @@ public class EC2Utils {
      */
 
     public static int numOfRunningWorkers() {
-        String nextToken = null;
-        int counter = 0;
-        do {
-            DescribeInstancesRequest request = DescribeInstancesRequest.builder().nextToken(nextToken).build();
-            DescribeInstancesResponse response = ec2.describeInstances(request);
-
-            for (Reservation reservation : response.reservations()) {
-                for (Instance instance : reservation.instances()) {
-                    List<Tag> tagList = instance.tags();
-                    for (Tag tag : tagList) {
-                        if (!tag.value().equals("Manager") &&
-                                (instance.state().name().toString().equals("running") ||
-                                        instance.state().name().toString().equals("pending")))
-                            counter++;
-                    }
-                }
-            }
-            nextToken = response.nextToken();
-        } while (nextToken != null);
-
-        return counter;
+        return fleet.numOfRunning("worker");
     }
 
-
-    //Local App should wait for other before lunching Workers.
-    public synchronized static void launchWorkers(int messageCount, int numOfMsgForWorker, String tasksQName, String workerOutputQName) {
-        try {
-            if (messageCount == 0) {
-                log.error("got 0 message count! should never happen!");
-                return;
-            }
-            int numOfRunningWorkers = EC2Utils.numOfRunningWorkers();
-            // numOfNewWorkers = // Number of new workers the job require.
-            int numOfNewWorkers = (messageCount <= numOfMsgForWorker) ? 1 : messageCount / numOfMsgForWorker;
-            if (numOfRunningWorkers > 0) {
-                numOfNewWorkers = (numOfNewWorkers <= numOfRunningWorkers) ? 0 :
-                        numOfNewWorkers - numOfRunningWorkers;
-                log.info("Number of running workers: " + numOfRunningWorkers + " requested workers: " +
-                        numOfNewWorkers + ". No new workers will be launched!");
-            }
-            if (numOfNewWorkers == 0) return;
-            //assert there are no more than 10 workers running.
-            if (numOfNewWorkers + numOfRunningWorkers <= 9) {
-                log.info("ManagerRunner launching " + numOfNewWorkers + " workers");
-                bootstrapWorkers(numOfNewWorkers, tasksQName, workerOutputQName);
-            } else if (numOfRunningWorkers < 9) {
-                log.info("ManagerRunner launching only " + (9 - numOfRunningWorkers) + " workers. max of 9 workers reached!");
-                bootstrapWorkers(9 - numOfRunningWorkers, tasksQName, workerOutputQName);
-            }
-        } catch (Ec2Exception ec2Ex) {
-            log.error("ManagerRunner.launchWorkers(): got Ec2Exception... " + ec2Ex.getMessage());
+    /**
+     * Terminate up to count running workers
+     *
+     * @return number of workers asked to terminate
+     */
+    public static int terminateWorkers(int count) {
+        List<String> workerInstanceIds = fleet.instanceIds("worker");
+        List<String> toTerminate = new ArrayList<>(workerInstanceIds.subList(0, Math.min(count, workerInstanceIds.size())));
+        if (!toTerminate.isEmpty()) {
+            log.info("killing {} workers!", toTerminate.size());
+            terminate(toTerminate);
         }
+        return toTerminate.size();
+    }
+
+    private static void terminate(List<String> instanceIds) {
+        TerminateInstancesRequest request = TerminateInstancesRequest.builder()
+                .instanceIds(instanceIds)
+                .build();
+        ec2.terminateInstances(request);
+        fleet.recordTerminated(instanceIds);
     }
 
 
@@ -224,6 +149,21 @@ public class EC2Utils {
         EC2Utils.createEc2Instance(instancesNames, createWorkerUserData(tasksQName, workerOutputQName), numOfInstances);
     }
 
+    /**
+     * Create the manager ec2 instance.
+     */
+    public static void bootstrapManager() {
+        EC2Utils.createEc2Instance("Manager", createManagerUserData(), 1);
+    }
+
+    private static String createManagerUserData() {
+        String script = "#!/bin/bash\n"
+                + "aws s3 cp " + S3Utils.getFileUrl("jars/managerapp") + " /home/ec2-user/Manager.jar\n"
+                + "java -jar /home/ec2-user/Manager.jar " + "\n";
+        log.debug("user data: " + script);
+        return script;
+    }
+
     private static String createWorkerUserData(String tasksQName, String workerOutputQName) {
         String fileKey = "jars/workerapp";
         String script = "#!/bin/bash\n"
@@ -0,0 +1,208 @@
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process queues with the SQS semantics the pipeline relies on: delivery delays, long polling,
+ * and visibility timeouts after which a received but undeleted message is delivered again.
+ */
+public class InMemoryQueueService implements QueueService {
+    private static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 30;
+
+    private final Map<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+    private volatile Listener listener;
+
+    /**
+     * Observes the traffic of all the queues, e.g. to measure the latency of each hop.
+     */
+    public interface Listener {
+        void onSend(String qName, String body, long timeMillis);
+
+        void onReceive(String qName, Message message, long timeMillis);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    private static class Entry {
+        final String messageId = UUID.randomUUID().toString();
+        final String body;
+        long visibleAt;
+        String receiptHandle;
+        boolean deleted;
+
+        Entry(String body, long visibleAt) {
+            this.body = body;
+            this.visibleAt = visibleAt;
+        }
+    }
+
+    private static class InMemoryQueue {
+        final long visibilityTimeoutMillis;
+        // Every live message, ordered by the time it becomes (again) visible.
+        final PriorityQueue<Entry> entries = new PriorityQueue<>((a, b) -> Long.compare(a.visibleAt, b.visibleAt));
+        final Map<String, Entry> inFlight = new HashMap<>();
+
+        InMemoryQueue(long visibilityTimeoutMillis) {
+            this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+        }
+
+        synchronized void add(String body, int delaySeconds) {
+            entries.add(new Entry(body, System.currentTimeMillis() + delaySeconds * 1000L));
+            notifyAll();
+        }
+
+        synchronized List<Message> receive(int maxNumOfMessages, long waitMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + waitMillis;
+            List<Message> messages = new ArrayList<>();
+            while (true) {
+                long now = System.currentTimeMillis();
+                while (messages.size() < maxNumOfMessages && !entries.isEmpty() && entries.peek().visibleAt <= now) {
+                    Entry entry = entries.poll();
+                    if (entry.deleted)
+                        continue;
+                    if (entry.receiptHandle != null)
+                        inFlight.remove(entry.receiptHandle);
+                    entry.receiptHandle = UUID.randomUUID().toString();
+                    entry.visibleAt = now + visibilityTimeoutMillis;
+                    inFlight.put(entry.receiptHandle, entry);
+                    entries.add(entry);
+                    messages.add(Message.builder()
+                            .messageId(entry.messageId)
+                            .receiptHandle(entry.receiptHandle)
+                            .body(entry.body)
+                            .build());
+                }
+                if (!messages.isEmpty() || now >= deadline)
+                    return messages;
+                long nextVisible = entries.isEmpty() ? deadline : Math.min(deadline, entries.peek().visibleAt);
+                wait(Math.max(1, nextVisible - now));
+            }
+        }
+
+        synchronized boolean delete(String receiptHandle) {
+            Entry entry = inFlight.remove(receiptHandle);
+            if (entry == null)
+                return false;
+            // Dropped lazily, once it reaches the head of the queue.
+            entry.deleted = true;
+            return true;
+        }
+
+        synchronized Map<QueueAttributeName, String> attributes() {
+            long now = System.currentTimeMillis();
+            int visible = 0;
+            int notVisible = 0;
+            int delayed = 0;
+            for (Entry entry : entries) {
+                if (entry.deleted)
+                    continue;
+                if (entry.visibleAt <= now)
+                    visible++;
+                else if (entry.receiptHandle != null)
+                    notVisible++;
+                else
+                    delayed++;
+            }
+            Map<QueueAttributeName, String> attributes = new HashMap<>();
+            attributes.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, String.valueOf(visible));
+            attributes.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE, String.valueOf(notVisible));
+            attributes.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED, String.valueOf(delayed));
+            attributes.put(QueueAttributeName.VISIBILITY_TIMEOUT, String.valueOf(visibilityTimeoutMillis / 1000));
+            return attributes;
+        }
+    }
+
+    private InMemoryQueue getQ(String qName) {
+        InMemoryQueue queue = queues.get(qName);
+        if (queue == null)
+            throw QueueDoesNotExistException.builder().message("queue " + qName + " does not exist").build();
+        return queue;
+    }
+
+    @Override
+    public void sendMSG(String qName, String messageBody, int delaySeconds) {
+        buildQueueIfNotExists(qName);
+        getQ(qName).add(messageBody, delaySeconds);
+        Listener current = listener;
+        if (current != null)
+            current.onSend(qName, messageBody, System.currentTimeMillis());
+    }
+
+    @Override
+    public List<String> sendMSGs(String qName, List<String> messageBodies, int delaySeconds) {
+        for (String body : messageBodies) {
+            sendMSG(qName, body, delaySeconds);
+        }
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Message> receiveMSGs(String qName, int maxNumOfMessages, int waitTime) {
+        try {
+            List<Message> messages = getQ(qName).receive(Math.min(maxNumOfMessages, MAX_BATCH_SIZE), waitTime * 1000L);
+            Listener current = listener;
+            if (current != null) {
+                long now = System.currentTimeMillis();
+                for (Message message : messages) {
+                    current.onReceive(qName, message, now);
+                }
+            }
+            return messages;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public void deleteMSG(Message msg, String qName) {
+        getQ(qName).delete(msg.receiptHandle());
+    }
+
+    @Override
+    public List<Message> deleteMSGs(List<Message> msgs, String qName) {
+        InMemoryQueue queue = getQ(qName);
+        List<Message> failed = new ArrayList<>();
+        for (Message msg : msgs) {
+            if (!queue.delete(msg.receiptHandle()))
+                failed.add(msg);
+        }
+        return failed;
+    }
+
+    @Override
+    public String buildQueueIfNotExists(String qName, Map<QueueAttributeName, String> attributes) {
+        queues.computeIfAbsent(qName, name -> {
+            String timeout = attributes == null ? null : attributes.get(QueueAttributeName.VISIBILITY_TIMEOUT);
+            int seconds = timeout == null ? DEFAULT_VISIBILITY_TIMEOUT_SECONDS : Integer.parseInt(timeout);
+            return new InMemoryQueue(seconds * 1000L);
+        });
+        return "memory://" + qName;
+    }
+
+    @Override
+    public void deleteQ(String qName) {
+        queues.remove(qName);
+    }
+
+    @Override
+    public Map<QueueAttributeName, String> getQueueAttributes(String qName, QueueAttributeName... names) {
+        Map<QueueAttributeName, String> all = getQ(qName).attributes();
+        Map<QueueAttributeName, String> requested = new HashMap<>();
+        for (QueueAttributeName name : names) {
+            if (all.containsKey(name))
+                requested.put(name, all.get(name));
+        }
+        return requested;
+    }
+}
@@ -0,0 +1,132 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Blobs stored as files under a local directory, one sub directory per bucket.
+ */
+public class LocalBlobStore implements BlobStore {
+    private final Path root;
+
+    public LocalBlobStore(Path root) {
+        this.root = root;
+    }
+
+    private Path path(String bucket, String key) {
+        return root.resolve(bucket).resolve(key);
+    }
+
+    @Override
+    public void ensureBucket(String bucket) {
+        try {
+            Files.createDirectories(root.resolve(bucket));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void uploadFile(File file, String bucket, String key) {
+        try {
+            Path target = path(bucket, key);
+            Files.createDirectories(target.getParent());
+            Files.copy(file.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void uploadStream(InputStream in, long contentLength, String bucket, String key) {
+        try {
+            Path target = path(bucket, key);
+            Files.createDirectories(target.getParent());
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Upload openUpload(String bucket, String key) {
+        try {
+            Path target = path(bucket, key);
+            Files.createDirectories(target.getParent());
+            // Written aside and moved into place on close, so readers never see a partial object.
+            Path staging = target.resolveSibling(target.getFileName() + ".uploading");
+            OutputStream out = Files.newOutputStream(staging);
+            return new Upload() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                    Files.move(staging, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+
+                @Override
+                public void abort() {
+                    try {
+                        out.close();
+                        Files.deleteIfExists(staging);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }
+            };
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public InputStream getObjectStream(String fileKey, String bucket) {
+        try {
+            return Files.newInputStream(path(bucket, fileKey));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void getObjectToLocal(String fileKey, String bucket, String localFilePath) {
+        try {
+            Files.copy(path(bucket, fileKey), Paths.get(localFilePath), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public long getObjectSize(String fileKey, String bucket) {
+        try {
+            return Files.size(path(bucket, fileKey));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public boolean exists(String fileKey, String bucket) {
+        return Files.isRegularFile(path(bucket, fileKey));
+    }
+
+    @Override
+    public String getObjectUrl(String bucket, String key) {
+        return path(bucket, key).toUri().toString();
+    }
+}
@@ -0,0 +1,82 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the manager and the workers as threads of the current process, by calling the main method
+ * of their classes. The classes are looked up by name, so the manager and worker jars only need to be
+ * on the classpath.
+ */
+public class LocalComputeProvisioner implements ComputeProvisioner {
+    private final static Logger log = LoggerFactory.getLogger(LocalComputeProvisioner.class);
+
+    private static final String MANAGER_CLASS = "Manager";
+    private static final String WORKER_CLASS = "Worker";
+
+    private Thread manager;
+    private final List<Thread> workers = new ArrayList<>();
+    private int workersCounter;
+
+    @Override
+    public synchronized boolean isInstanceRunning(String instanceName) {
+        if (instanceName.equals("Manager"))
+            return manager != null && manager.isAlive();
+        return workers.stream().anyMatch(worker -> worker.getName().equals(instanceName) && worker.isAlive());
+    }
+
+    @Override
+    public synchronized void launchManager() {
+        manager = start("Manager", MANAGER_CLASS, new String[0]);
+    }
+
+    @Override
+    public synchronized void launchWorkers(int count, String tasksQName, String workerOutputQName) {
+        for (int i = 0; i < count; i++) {
+            workers.add(start("WorkerNumber" + workersCounter++, WORKER_CLASS,
+                    new String[]{tasksQName, workerOutputQName}));
+        }
+    }
+
+    @Override
+    public synchronized int numOfRunningWorkers() {
+        workers.removeIf(worker -> !worker.isAlive());
+        return workers.size();
+    }
+
+    @Override
+    public synchronized int terminateWorkers(int count) {
+        workers.removeIf(worker -> !worker.isAlive());
+        int terminated = Math.min(count, workers.size());
+        for (int i = 0; i < terminated; i++) {
+            workers.remove(workers.size() - 1).interrupt();
+        }
+        return terminated;
+    }
+
+    @Override
+    public synchronized void terminateAll() {
+        terminateWorkers(workers.size());
+        if (manager != null && manager != Thread.currentThread())
+            manager.interrupt();
+    }
+
+    private static Thread start(String name, String mainClass, String[] args) {
+        Thread thread = new Thread(() -> {
+            try {
+                Class.forName(mainClass).getMethod("main", String[].class).invoke(null, (Object) args);
+            } catch (InvocationTargetException ex) {
+                if (!(ex.getCause() instanceof InterruptedException))
+                    log.error("LocalComputeProvisioner: " + name + " failed", ex.getCause());
+            } catch (ReflectiveOperationException ex) {
+                log.error("LocalComputeProvisioner: could not start " + name + ", is " + mainClass + " on the classpath?", ex);
+            }
+            log.info("LocalComputeProvisioner: {} exited", name);
+        }, name);
+        thread.start();
+        log.info("LocalComputeProvisioner: started {}", name);
+        return thread;
+    }
+}
@@ -0,0 +1,242 @@
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process wide counters, gauges and latency histograms, named like "worker.convert{op=TOIMAGE}".
+ * Once started, they are served as text on http://host:-Dmetrics.port/metrics (9404, 0 disables)
+ * and written every -Dmetrics.snapshotSeconds (60, 0 disables) to the bucket under "metrics/".
+ */
+public class Metrics {
+    private final static Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    private static final int PORT = Integer.getInteger("metrics.port", 9404);
+    private static final long SNAPSHOT_SECONDS = Long.getLong("metrics.snapshotSeconds", 60);
+    private static final String SNAPSHOT_PREFIX = "metrics/";
+
+    public static class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Distribution of a value, e.g. a latency in millis, in power of two buckets.
+     */
+    public static class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        // bucket i counts the values below 2^i
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            count.increment();
+            sum.add(value);
+            max.accumulateAndGet(value, Math::max);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return the upper bound of the bucket the quantile falls in, at most the max
+         */
+        public long quantile(double q) {
+            long total = getCount();
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (total > 0 && seen >= q * total)
+                    return Math.min(max.get(), (1L << i) - 1);
+            }
+            return max.get();
+        }
+
+        @Override
+        public String toString() {
+            long n = getCount();
+            return "count=" + n +
+                    " avg=" + (n == 0 ? 0 : sum.sum() / n) +
+                    " p50=" + quantile(0.5) +
+                    " p90=" + quantile(0.9) +
+                    " p99=" + quantile(0.99) +
+                    " max=" + max.get();
+        }
+    }
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reporter;
+    private static String snapshotKey;
+
+    /**
+     * @return the name with a label, "name{label=value}"
+     */
+    public static String name(String name, String label, String value) {
+        return name + "{" + label + "=" + value + "}";
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static Counter counter(String name, String label, String value) {
+        return counter(name(name, label, value));
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    public static Histogram histogram(String name, String label, String value) {
+        return histogram(name(name, label, value));
+    }
+
+    /**
+     * Register a value that is read whenever the metrics are reported. Replaces a gauge of the same name.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Run a call, recording its latency in the histogram of the name and its failures in "name.errors".
+     */
+    public static <T> T timed(String name, Supplier<T> call) {
+        long start = System.currentTimeMillis();
+        try {
+            return call.get();
+        } catch (RuntimeException ex) {
+            counter(name + ".errors").increment();
+            throw ex;
+        } finally {
+            histogram(name).record(System.currentTimeMillis() - start);
+        }
+    }
+
+    public static void timed(String name, Runnable call) {
+        timed(name, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return all the metrics, a line each, sorted by name
+     */
+    public static String snapshot() {
+        Map<String, String> lines = new TreeMap<>();
+        counters.forEach((name, counter) -> lines.put(name, String.valueOf(counter.get())));
+        histograms.forEach((name, histogram) -> lines.put(name, histogram.toString()));
+        gauges.forEach((name, gauge) -> {
+            try {
+                lines.put(name, String.valueOf(gauge.getAsLong()));
+            } catch (RuntimeException ex) {
+                lines.put(name, "error");
+            }
+        });
+        StringBuilder snapshot = new StringBuilder();
+        lines.forEach((name, value) -> snapshot.append(name).append(' ').append(value).append('\n'));
+        return snapshot.toString();
+    }
+
+    /**
+     * Start serving and snapshotting the metrics of this process. Only the first call does anything.
+     *
+     * @param component names the snapshots, e.g. "worker"
+     */
+    public static synchronized void start(String component) {
+        if (reporter != null)
+            return;
+        snapshotKey = SNAPSHOT_PREFIX + component + "-" + hostName() + ".txt";
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Started from the daemon reporter thread, so the server's dispatcher thread is a daemon as well
+        // and does not keep the process alive.
+        if (PORT > 0)
+            reporter.execute(Metrics::serve);
+        if (SNAPSHOT_SECONDS > 0)
+            reporter.scheduleWithFixedDelay(Metrics::writeSnapshot, SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Write a last snapshot, e.g. before the process exits.
+     */
+    public static synchronized void flush() {
+        if (reporter != null && SNAPSHOT_SECONDS > 0)
+            writeSnapshot();
+    }
+
+    private static void serve() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = snapshot().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            log.info("serving metrics on port {}", PORT);
+        } catch (IOException ex) {
+            log.warn("could not serve metrics on port {}: {}", PORT, ex.getMessage());
+        }
+    }
+
+    private static void writeSnapshot() {
+        try {
+            byte[] content = snapshot().getBytes(StandardCharsets.UTF_8);
+            Transport.blobs().uploadStream(new ByteArrayInputStream(content), content.length,
+                    S3Utils.PRIVATE_BUCKET, snapshotKey);
+        } catch (RuntimeException ex) {
+            log.warn("could not write metrics snapshot: {}", ex.getMessage());
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException ex) {
+            return UUID.randomUUID().toString();
+        }
+    }
+}
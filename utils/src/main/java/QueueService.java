@@ -0,0 +1,57 @@
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message queues the local apps, the manager and the workers talk through.
+ */
+public interface QueueService {
+    // Max number of entries in a single receive / batch request.
+    int MAX_BATCH_SIZE = 10;
+    // Delivery delay of messages sent without an explicit one. Zero unless overridden with -Dsqs.delaySeconds.
+    int DEFAULT_DELAY_SECONDS = Integer.getInteger("sqs.delaySeconds", 0);
+
+    default void sendMSG(String qName, String messageBody) {
+        sendMSG(qName, messageBody, DEFAULT_DELAY_SECONDS);
+    }
+
+    /**
+     * @param delaySeconds how long the message is hidden before it is delivered
+     */
+    void sendMSG(String qName, String messageBody, int delaySeconds);
+
+    /**
+     * @return the bodies of the messages that could not be sent
+     */
+    default List<String> sendMSGs(String qName, List<String> messageBodies) {
+        return sendMSGs(qName, messageBodies, DEFAULT_DELAY_SECONDS);
+    }
+
+    List<String> sendMSGs(String qName, List<String> messageBodies, int delaySeconds);
+
+    /**
+     * @param maxNumOfMessages how many messages to receive at most, capped by MAX_BATCH_SIZE
+     * @param waitTime         seconds to wait for messages to arrive
+     * @return the received messages, never null
+     */
+    List<Message> receiveMSGs(String qName, int maxNumOfMessages, int waitTime);
+
+    void deleteMSG(Message msg, String qName);
+
+    /**
+     * @return the messages that could not be deleted
+     */
+    List<Message> deleteMSGs(List<Message> msgs, String qName);
+
+    default String buildQueueIfNotExists(String qName) {
+        return buildQueueIfNotExists(qName, null);
+    }
+
+    String buildQueueIfNotExists(String qName, Map<QueueAttributeName, String> attributes);
+
+    void deleteQ(String qName);
+
+    Map<QueueAttributeName, String> getQueueAttributes(String qName, QueueAttributeName... names);
+}
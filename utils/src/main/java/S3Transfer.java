@@ -0,0 +1,404 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves large objects in parts, several at a time: multipart uploads with concurrent parts and ranged
+ * parallel downloads. Objects below the multipart threshold take a single request.
+ * Every request body carries a Content-MD5, so s3 rejects a corrupted part, and uploaded files record
+ * the md5 of their whole content, which their downloads are verified against.
+ * <p>
+ * Configured with -Ds3.partSizeBytes (8MB, at least s3's 5MB minimum), -Ds3.multipartThresholdBytes (16MB)
+ * and -Ds3.transferThreads (8).
+ */
+public class S3Transfer {
+    private final static Logger log = LoggerFactory.getLogger(S3Transfer.class);
+
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+    public static final long PART_SIZE = Math.max(MIN_PART_SIZE, Long.getLong("s3.partSizeBytes", 8 * 1024 * 1024));
+    public static final long MULTIPART_THRESHOLD = Math.max(PART_SIZE,
+            Long.getLong("s3.multipartThresholdBytes", 16 * 1024 * 1024));
+    private static final int THREADS = Math.max(1, Integer.getInteger("s3.transferThreads", 8));
+    private static final String MD5_METADATA = "content-md5";
+
+    private final S3Client s3;
+    private final ExecutorService executor;
+    // Bounds the parts held in memory by all the transfers together.
+    private final Semaphore partsInFlight = new Semaphore(THREADS * 2);
+
+    public S3Transfer(S3Client s3) {
+        this.s3 = s3;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "s3-transfer-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Upload a file, in parallel parts if it is large.
+     */
+    public void upload(Path file, String bucket, String key) {
+        try {
+            long size = Files.size(file);
+            String md5 = md5Hex(file);
+            if (size < MULTIPART_THRESHOLD) {
+                byte[] content = Files.readAllBytes(file);
+                putObject(bucket, key, content, md5);
+                return;
+            }
+            try (InputStream in = Files.newInputStream(file)) {
+                multipartUpload(in, bucket, key, Collections.singletonMap(MD5_METADATA, md5));
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Upload contentLength bytes of a stream, in parallel parts if they are many.
+     */
+    public void upload(InputStream in, long contentLength, String bucket, String key) {
+        try {
+            if (contentLength < MULTIPART_THRESHOLD) {
+                byte[] content = readFully(in, (int) contentLength);
+                putObject(bucket, key, content, null);
+                return;
+            }
+            multipartUpload(in, bucket, key, Collections.emptyMap());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void putObject(String bucket, String key, byte[] content, String md5Hex) {
+        PutObjectRequest.Builder request = PutObjectRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .contentLength((long) content.length)
+                .contentMD5(md5Base64(content));
+        if (md5Hex != null)
+            request.metadata(Collections.singletonMap(MD5_METADATA, md5Hex));
+        s3.putObject(request.build(), RequestBody.fromBytes(content));
+    }
+
+    /**
+     * Read the stream a part at a time and upload the parts concurrently. The upload is aborted if any part fails.
+     */
+    private void multipartUpload(InputStream in, String bucket, String key, Map<String, String> metadata)
+            throws IOException {
+        BlobStore.Upload out = new MultipartOutputStream(bucket, key, metadata);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException ex) {
+            out.abort();
+            throw ex;
+        }
+        out.close();
+    }
+
+    /**
+     * @return an upload of whatever is written to it, sent a part at a time as the parts fill, so only
+     * a part per upload is ever held in memory. Content that never fills a part is sent with a single put on close.
+     */
+    public BlobStore.Upload openUpload(String bucket, String key) {
+        return new MultipartOutputStream(bucket, key, Collections.emptyMap());
+    }
+
+    private class MultipartOutputStream extends BlobStore.Upload {
+        private final String bucket;
+        private final String key;
+        private final Map<String, String> metadata;
+        private final List<Future<CompletedPart>> parts = new ArrayList<>();
+        private byte[] buffer = new byte[(int) PART_SIZE];
+        private int count;
+        private String uploadId;
+        private boolean closed;
+
+        MultipartOutputStream(String bucket, String key, Map<String, String> metadata) {
+            this.bucket = bucket;
+            this.key = key;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length)
+                sendPart();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            while (len > 0) {
+                if (count == buffer.length)
+                    sendPart();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed)
+                throw new IOException("upload of " + key + " is closed");
+        }
+
+        private void sendPart() throws IOException {
+            if (uploadId == null) {
+                uploadId = s3.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .metadata(metadata)
+                        .build()).uploadId();
+            }
+            acquirePart();
+            byte[] part = count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+            int partNumber = parts.size() + 1;
+            String id = uploadId;
+            try {
+                parts.add(executor.submit(() -> {
+                    try {
+                        return uploadPart(bucket, key, id, partNumber, part);
+                    } finally {
+                        partsInFlight.release();
+                    }
+                }));
+            } catch (RuntimeException ex) {
+                partsInFlight.release();
+                throw ex;
+            }
+            buffer = new byte[(int) PART_SIZE];
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            try {
+                if (uploadId == null) {
+                    putObject(bucket, key, Arrays.copyOf(buffer, count), metadata.get(MD5_METADATA));
+                    closed = true;
+                    return;
+                }
+                if (count > 0)
+                    sendPart();
+                closed = true;
+                List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+                for (Future<CompletedPart> part : parts) {
+                    completedParts.add(await(part));
+                }
+                completedParts.sort(Comparator.comparing(CompletedPart::partNumber));
+                s3.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                        .build());
+                log.debug("uploaded {} in {} parts", key, completedParts.size());
+            } catch (IOException | RuntimeException ex) {
+                abort();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void abort() {
+            closed = true;
+            buffer = null;
+            for (Future<CompletedPart> part : parts) {
+                part.cancel(true);
+            }
+            if (uploadId == null)
+                return;
+            try {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(bucket).key(key).uploadId(uploadId).build());
+            } catch (S3Exception | SdkClientException abortEx) {
+                log.warn("could not abort multipart upload of {}: {}", key, abortEx.getMessage());
+            }
+            uploadId = null;
+        }
+    }
+
+    private CompletedPart uploadPart(String bucket, String key, String uploadId, int partNumber, byte[] part) {
+        UploadPartResponse response = s3.uploadPart(UploadPartRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .uploadId(uploadId)
+                        .partNumber(partNumber)
+                        .contentLength((long) part.length)
+                        .contentMD5(md5Base64(part))
+                        .build(),
+                RequestBody.fromBytes(part));
+        return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+    }
+
+    /**
+     * Download an object to a file, in parallel ranges if it is large, and verify it against the md5
+     * recorded at upload when there is one.
+     */
+    public void download(String bucket, String key, Path target) {
+        HeadObjectResponse head = s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(key).build());
+        long size = head.contentLength();
+        try {
+            Files.deleteIfExists(target);
+            if (size < MULTIPART_THRESHOLD) {
+                s3.getObject(GetObjectRequest.builder().bucket(bucket).key(key).build(),
+                        ResponseTransformer.toFile(target));
+            } else {
+                rangedDownload(bucket, key, head.eTag(), size, target);
+            }
+            String expectedMd5 = head.metadata().get(MD5_METADATA);
+            if (expectedMd5 == null && head.eTag() != null && !head.eTag().contains("-"))
+                expectedMd5 = head.eTag().replace("\"", ""); // the ETag of a single part upload is its md5
+            if (expectedMd5 != null && !expectedMd5.equalsIgnoreCase(md5Hex(target)))
+                throw new IOException("checksum mismatch downloading " + key);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void rangedDownload(String bucket, String key, String eTag, long size, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            List<Future<?>> ranges = new ArrayList<>();
+            try {
+                for (long start = 0; start < size; start += PART_SIZE) {
+                    long first = start;
+                    long last = Math.min(size, start + PART_SIZE) - 1;
+                    ranges.add(executor.submit(() -> {
+                        // ifMatch makes sure every range comes from the same version of the object.
+                        ResponseBytes<GetObjectResponse> range = s3.getObject(GetObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .range("bytes=" + first + "-" + last)
+                                .ifMatch(eTag)
+                                .build(), ResponseTransformer.toBytes());
+                        ByteBuffer buffer = range.asByteBuffer();
+                        if (buffer.remaining() != last - first + 1)
+                            throw new IOException("short range " + first + "-" + last + " of " + key);
+                        long position = first;
+                        while (buffer.hasRemaining()) {
+                            position += channel.write(buffer, position);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> range : ranges) {
+                    await(range);
+                }
+            } catch (IOException | RuntimeException ex) {
+                for (Future<?> range : ranges) {
+                    range.cancel(true);
+                }
+                throw ex;
+            }
+        }
+        log.debug("downloaded {} in {} ranges", key, (size + PART_SIZE - 1) / PART_SIZE);
+    }
+
+    private void acquirePart() throws IOException {
+        try {
+            partsInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for a part to upload", e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while transferring", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return up to max bytes of the stream, fewer only at its end
+     */
+    private static byte[] readFully(InputStream in, int max) throws IOException {
+        byte[] buffer = new byte[max];
+        int total = 0;
+        int read;
+        while (total < max && (read = in.read(buffer, total, max - total)) != -1) {
+            total += read;
+        }
+        return total == max ? buffer : Arrays.copyOf(buffer, total);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String md5Base64(byte[] content) {
+        return Base64.getEncoder().encodeToString(md5().digest(content));
+    }
+
+    private static String md5Hex(Path file) throws IOException {
+        MessageDigest md5 = md5();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                md5.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md5.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -1,23 +1,23 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.core.exception.SdkClientException;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.core.sync.ResponseTransformer;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class S3Utils {
     private final static Logger log = LoggerFactory.getLogger(S3Utils.class);
 
     private static final S3Client s3 = S3Client.builder().region(Region.US_EAST_1).build();
+    private static final S3Transfer transfer = new S3Transfer(s3);
+    // Buckets known to exist, so uploads do not provision them again.
+    private static final Set<String> knownBuckets = ConcurrentHashMap.newKeySet();
     public static final String PRIVATE_BUCKET = "eladoss";
 
     public static String uploadFile(String fileLocalPath, String fileKey) {
@@ -31,30 +31,111 @@ public class S3Utils {
         return true;
     }
 
+    /**
+     * Upload content straight from a stream, without staging it in a local file
+     *
+     * @return the bucket the content was uploaded to
+     */
+    public static String uploadStream(InputStream in, long contentLength, String fileKey) {
+        uploadStream(in, contentLength, PRIVATE_BUCKET, fileKey);
+        return PRIVATE_BUCKET;
+    }
+
+    public static void uploadStream(InputStream in, long contentLength, String bucket, String key) {
+        ensureBucket(bucket);
+        transfer.upload(in, contentLength, bucket, key);
+    }
+
+    /**
+     * Upload content as it is written, a part at a time, without knowing its length up front
+     */
+    public static BlobStore.Upload openUpload(String bucket, String key) {
+        ensureBucket(bucket);
+        return transfer.openUpload(bucket, key);
+    }
+
     public static boolean uploadLargeFile(String fileLocalPath, String fileKey, String bucketName) {
-        multipartUpload(fileLocalPath, fileKey, bucketName);
+        uploadFile(new File(fileLocalPath), bucketName, fileKey);
         return true;
     }
 
+    /**
+     * Download an object to a local file, in parallel ranges if it is large
+     */
     public static void getObjectToLocal(String fileKey, String bucket, String localFilePath) {
-        s3.getObject(GetObjectRequest.builder().bucket(bucket).key(fileKey).build(),
-                ResponseTransformer.toFile(Paths.get(localFilePath)));
+        transfer.download(bucket, fileKey, Paths.get(localFilePath));
+    }
+
+    /**
+     * @return the size in bytes of the object, without downloading it
+     */
+    public static long getObjectSize(String fileKey, String bucket) {
+        return s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(fileKey).build()).contentLength();
+    }
+
+    /**
+     * @return whether the object exists, with a single HEAD request
+     */
+    public static boolean exists(String fileKey, String bucket) {
+        try {
+            s3.headObject(HeadObjectRequest.builder().bucket(bucket).key(fileKey).build());
+            return true;
+        } catch (NoSuchKeyException ex) {
+            return false;
+        } catch (S3Exception ex) {
+            if (ex.statusCode() == 404)
+                return false;
+            throw ex;
+        }
     }
 
     /**
-     * Upload first Input file to S3
+     * @return a stream over the object content, read straight from s3. The caller must close it.
+     */
+    public static InputStream getObjectStream(String fileKey, String bucket) {
+        return s3.getObject(GetObjectRequest.builder().bucket(bucket).key(fileKey).build());
+    }
+
+    /**
+     * Upload first Input file to S3, in parallel parts if it is large
      */
     public static void uploadFile(File input_file, String bucket, String key) {
+        ensureBucket(bucket);
+        transfer.upload(input_file.toPath(), bucket, key);
+    }
+
+    /**
+     * Create the bucket unless it exists. Checked against s3 once per bucket and process,
+     * so calling it before every upload costs nothing after the first.
+     */
+    public static void ensureBucket(String bucket) {
+        if (knownBuckets.contains(bucket))
+            return;
+        synchronized (knownBuckets) {
+            if (knownBuckets.contains(bucket))
+                return;
+            if (!bucketExists(bucket)) {
+                try {
+                    createBucket(bucket);
+                } catch (BucketAlreadyExistsException | BucketAlreadyOwnedByYouException ignored) {
+                    log.debug("bucket with name: " + bucket + " already exists!");
+                }
+            }
+            knownBuckets.add(bucket);
+        }
+    }
+
+    private static boolean bucketExists(String bucket) {
         try {
-            createBucket(bucket);
-        } catch (BucketAlreadyExistsException | BucketAlreadyOwnedByYouException ignored) {
-            log.debug("bucket with name: " + bucket + " already exists!");
+            s3.headBucket(HeadBucketRequest.builder().bucket(bucket).build());
+            return true;
+        } catch (NoSuchBucketException ex) {
+            return false;
+        } catch (S3Exception ex) {
+            if (ex.statusCode() == 404)
+                return false;
+            throw ex;
         }
-        s3.putObject(PutObjectRequest.builder()
-                        .bucket(bucket)
-                        .key(key)
-                        .build(),
-                RequestBody.fromFile(input_file));
     }
 
     private static void createBucket(String bucketName) {
@@ -81,68 +162,6 @@ public class S3Utils {
         }
     }
 
-    private static void multipartUpload(String filePath, String keyName, String bucketName) {
-        createBucket(bucketName);
-        File file = new File(filePath);
-        long contentLength = file.length();
-        long partSize = 5 * 1024 * 1024; // Set part size to 5 MB.
-
-        try {
-            // Create a list of ETag objects. You retrieve ETags for each object part uploaded,
-            // then, after each individual part has been uploaded, pass the list of ETags to
-            // the request to complete the upload.
-            List<CompletedPart> completedParts = new ArrayList<>();
-            CreateMultipartUploadRequest createMultipartUploadRequest;
-            // Initiate the multipart upload.
-            createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
-                    .bucket(bucketName)
-                    .key(keyName)
-                    .build();
-            CreateMultipartUploadResponse response = s3.createMultipartUpload(createMultipartUploadRequest);
-            String uploadId = response.uploadId();
-            log.debug(uploadId);
-
-            // Upload the file parts.
-            long filePosition = 0;
-            log.debug("content length: " + contentLength);
-            for (int i = 1; filePosition < contentLength; i++) {
-                log.debug("uploading part: " + i);
-                log.debug("file pos: " + filePosition);
-                // Because the last part could be less than 5 MB, adjust the part size as needed.
-                partSize = Math.min(partSize, (contentLength - filePosition));
-
-                // Create the request to upload a part.
-                UploadPartRequest uploadPartRequestI = UploadPartRequest.builder()
-                        .bucket(bucketName)
-                        .key(keyName)
-                        .uploadId(uploadId)
-                        .partNumber(i)
-                        .contentLength(partSize)
-                        .build();
-
-                UploadPartResponse uploadPartResponse =
-                        s3.uploadPart(uploadPartRequestI, RequestBody.fromInputStream(new FileInputStream(file), partSize));
-                String etagI = uploadPartResponse.eTag();
-                completedParts.add(CompletedPart.builder().partNumber(i).eTag(etagI).build());
-
-                filePosition += partSize;
-            }
-            // Complete the multipart upload.
-            CompletedMultipartUpload completedMultipartUpload = CompletedMultipartUpload.builder().parts(completedParts).build();
-            CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
-                    .bucket(bucketName)
-                    .key(keyName)
-                    .uploadId(uploadId)
-                    .multipartUpload(completedMultipartUpload)
-                    .build();
-            s3.completeMultipartUpload(completeMultipartUploadRequest);
-        } catch (SdkClientException | FileNotFoundException e) {
-            // Amazon S3 couldn't be contacted for a response, or the client
-            // couldn't parse the response from Amazon S3.
-            e.printStackTrace();
-        }
-    }
-
     /**
      * Extract the file url from some s3 path
      *
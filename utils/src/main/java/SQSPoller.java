@@ -0,0 +1,128 @@
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Receive loop over a single queue.
+ * Uses long polling, backs off when the queue stays empty, and retries with a jittered
+ * exponential delay when SQS fails, instead of busy polling.
+ */
+public class SQSPoller {
+    private final static Logger log = LoggerFactory.getLogger(SQSPoller.class);
+
+    // Longest wait SQS allows for a single receive.
+    public static final int MAX_WAIT_TIME_SECONDS = 20;
+    private static final int EMPTY_RECEIVES_BEFORE_BACKOFF = 3;
+    private static final long MIN_IDLE_BACKOFF_MILLIS = 500;
+    private static final long DEFAULT_MAX_IDLE_BACKOFF_MILLIS = 5000;
+    private static final long MIN_FAILURE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_FAILURE_BACKOFF_MILLIS = 30000;
+
+    private final String qName;
+    private final int waitTimeSeconds;
+    private final long maxIdleBackoffMillis;
+    private int consecutiveEmptyReceives;
+    private int consecutiveFailures;
+    private long emptyReceives;
+    private long failures;
+
+    public SQSPoller(String qName) {
+        this(qName, MAX_WAIT_TIME_SECONDS, DEFAULT_MAX_IDLE_BACKOFF_MILLIS);
+    }
+
+    /**
+     * @param waitTimeSeconds      long polling wait time of every receive, at most MAX_WAIT_TIME_SECONDS
+     * @param maxIdleBackoffMillis longest extra sleep between receives while the queue stays empty, 0 to disable
+     */
+    public SQSPoller(String qName, int waitTimeSeconds, long maxIdleBackoffMillis) {
+        this.qName = qName;
+        this.waitTimeSeconds = Math.min(waitTimeSeconds, MAX_WAIT_TIME_SECONDS);
+        this.maxIdleBackoffMillis = maxIdleBackoffMillis;
+    }
+
+    /**
+     * Receive up to maxNumOfMessages messages.
+     * Failures are logged and retried by the next call after a backoff, so this never throws SQS errors.
+     *
+     * @return the received messages, empty if there were none or the receive failed
+     */
+    public List<Message> poll(int maxNumOfMessages) throws InterruptedException {
+        List<Message> messages;
+        try {
+            messages = Transport.queues().receiveMSGs(qName, maxNumOfMessages, waitTimeSeconds);
+        } catch (SqsException | SdkClientException ex) {
+            backoffAfterFailure(ex);
+            return new ArrayList<>();
+        }
+        consecutiveFailures = 0;
+        if (messages.isEmpty()) {
+            emptyReceives++;
+            consecutiveEmptyReceives++;
+            backoffWhileIdle();
+        } else {
+            consecutiveEmptyReceives = 0;
+        }
+        return messages;
+    }
+
+    /**
+     * @return a single message, or null if none arrived
+     */
+    public Message pollOne() throws InterruptedException {
+        List<Message> messages = poll(1);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Sleep a jittered, exponentially growing delay after a failed call on the queue.
+     */
+    public void backoffAfterFailure(RuntimeException ex) throws InterruptedException {
+        failures++;
+        long delay = jitter(exponential(MIN_FAILURE_BACKOFF_MILLIS, MAX_FAILURE_BACKOFF_MILLIS, consecutiveFailures++));
+        log.error("SQSPoller: got exception on " + qName + "... " + ex.getMessage()
+                + "\nsleeping " + delay + "ms & retrying!");
+        Thread.sleep(delay);
+    }
+
+    private void backoffWhileIdle() throws InterruptedException {
+        int idleRounds = consecutiveEmptyReceives - EMPTY_RECEIVES_BEFORE_BACKOFF;
+        if (maxIdleBackoffMillis <= 0 || idleRounds < 0)
+            return;
+        Thread.sleep(jitter(exponential(MIN_IDLE_BACKOFF_MILLIS, maxIdleBackoffMillis, idleRounds)));
+    }
+
+    private static long exponential(long min, long max, int attempt) {
+        return Math.min(max, min << Math.min(attempt, 20));
+    }
+
+    /**
+     * @return a random delay between half and all of the given delay
+     */
+    private static long jitter(long delay) {
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * @return number of receives that returned no messages
+     */
+    public long getEmptyReceives() {
+        return emptyReceives;
+    }
+
+    /**
+     * @return number of failed calls on the queue
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public String getQName() {
+        return qName;
+    }
+}
@@ -5,16 +5,46 @@ import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 import software.amazon.awssdk.utils.CollectionUtils;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SQSUtils {
     private final static Logger log = LoggerFactory.getLogger(SQSUtils.class);
     private final static SqsClient sqs = SqsClient.builder().region(Region.US_EAST_1).build();
+    // Max number of entries SQS accepts in a single receive / batch request.
+    public static final int MAX_BATCH_SIZE = QueueService.MAX_BATCH_SIZE;
+    // Queue name -> url. A queue url never changes while the queue exists, so it is resolved once
+    // and shared by all the threads of the process.
+    private final static Map<String, String> qUrls = new ConcurrentHashMap<>();
+    public static final int DEFAULT_DELAY_SECONDS = QueueService.DEFAULT_DELAY_SECONDS;
 
     public static void sendMSG(String qName, String messageBody) {
-        buildQueueIfNotExists(qName);
-        putMessageInSqs(getQUrl(qName), messageBody);
+        sendMSG(qName, messageBody, DEFAULT_DELAY_SECONDS);
+    }
+
+    /**
+     * @param delaySeconds how long SQS hides the message before delivering it
+     */
+    public static void sendMSG(String qName, String messageBody, int delaySeconds) {
+        String qUrl = sendQUrl(qName);
+        try {
+            putMessageInSqs(qUrl, messageBody, delaySeconds);
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
+    }
+
+    /**
+     * @return the url to send to, creating the queue if needed. The create returns null when it
+     * fails because the queue exists, so the url is then looked up.
+     */
+    private static String sendQUrl(String qName) {
+        String qUrl = buildQueueIfNotExists(qName);
+        return qUrl != null ? qUrl : getQUrl(qName);
     }
 
     public static Message recieveMSG(String qName) {
@@ -22,9 +52,92 @@ public class SQSUtils {
     }
 
     public static Message recieveMSG(String qName, int waitTime) {
-        ReceiveMessageRequest receiveRequest = getReceiveMessageRequest(qName, waitTime);
-        List<Message> messages = sqs.receiveMessage(receiveRequest).messages();
-        return CollectionUtils.isNullOrEmpty(messages) ? null : messages.get(0);
+        List<Message> messages = recieveMSGs(qName, 1, waitTime);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * @param maxNumOfMessages how many messages to receive at most, capped by MAX_BATCH_SIZE
+     * @return the received messages, never null
+     */
+    public static List<Message> recieveMSGs(String qName, int maxNumOfMessages, int waitTime) {
+        ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
+                .queueUrl(getQUrl(qName))
+                .maxNumberOfMessages(Math.min(maxNumOfMessages, MAX_BATCH_SIZE))
+                .waitTimeSeconds(waitTime)
+                .build();
+        List<Message> messages;
+        try {
+            messages = sqs.receiveMessage(receiveRequest).messages();
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
+        return CollectionUtils.isNullOrEmpty(messages) ? new ArrayList<>() : messages;
+    }
+
+    /**
+     * Send all the messages using batch requests of up to MAX_BATCH_SIZE entries.
+     * Entries that failed on the SQS side are retried once.
+     *
+     * @return the bodies of the messages that could not be sent
+     */
+    public static List<String> sendMSGs(String qName, List<String> messageBodies) {
+        return sendMSGs(qName, messageBodies, DEFAULT_DELAY_SECONDS);
+    }
+
+    /**
+     * @param delaySeconds how long SQS hides each message before delivering it
+     * @return the bodies of the messages that could not be sent
+     */
+    public static List<String> sendMSGs(String qName, List<String> messageBodies, int delaySeconds) {
+        if (messageBodies.isEmpty())
+            return new ArrayList<>();
+        String qUrl = sendQUrl(qName);
+        List<String> failed = new ArrayList<>();
+        try {
+            for (int from = 0; from < messageBodies.size(); from += MAX_BATCH_SIZE) {
+                List<String> chunk = messageBodies.subList(from, Math.min(from + MAX_BATCH_SIZE, messageBodies.size()));
+                List<String> failedInChunk = sendBatch(qUrl, chunk, delaySeconds);
+                if (!failedInChunk.isEmpty())
+                    failedInChunk = sendBatch(qUrl, failedInChunk, delaySeconds);
+                failed.addAll(failedInChunk);
+            }
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
+        if (!failed.isEmpty())
+            log.error("SQSUtils.sendMSGs(): failed to send " + failed.size() + " messages to " + qName);
+        return failed;
+    }
+
+    /**
+     * Delete all the messages using batch requests of up to MAX_BATCH_SIZE entries.
+     * Entries that failed on the SQS side are retried once.
+     *
+     * @return the messages that could not be deleted
+     */
+    public static List<Message> deleteMSGs(List<Message> msgs, String qName) {
+        if (msgs.isEmpty())
+            return new ArrayList<>();
+        String qUrl = getQUrl(qName);
+        List<Message> failed = new ArrayList<>();
+        try {
+            for (int from = 0; from < msgs.size(); from += MAX_BATCH_SIZE) {
+                List<Message> chunk = msgs.subList(from, Math.min(from + MAX_BATCH_SIZE, msgs.size()));
+                List<Message> failedInChunk = deleteBatch(qUrl, chunk);
+                if (!failedInChunk.isEmpty())
+                    failedInChunk = deleteBatch(qUrl, failedInChunk);
+                failed.addAll(failedInChunk);
+            }
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
+        if (!failed.isEmpty())
+            log.error("SQSUtils.deleteMSGs(): failed to delete " + failed.size() + " messages from " + qName);
+        return failed;
     }
 
     public static boolean deleteMSG(Message msg, String qName) {
@@ -32,7 +145,12 @@ public class SQSUtils {
                 .queueUrl(getQUrl(qName))
                 .receiptHandle(msg.receiptHandle())
                 .build();
-        sqs.deleteMessage(deleteRequest);
+        try {
+            sqs.deleteMessage(deleteRequest);
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
         return true;
     }
 
@@ -60,15 +178,25 @@ public class SQSUtils {
             sqs.deleteQueue(deleteManLocQ);
         } catch (SqsException ex) {
             log.error("SQSUtils.deleteQ(): error... " + ex.getMessage());
+        } finally {
+            forgetQUrl(qName);
         }
     }
 
-    private static ReceiveMessageRequest getReceiveMessageRequest(String qName, int waitTime) {
-        return ReceiveMessageRequest.builder()
+    /**
+     * @return the requested attributes of the queue, e.g. its approximate number of messages
+     */
+    public static Map<QueueAttributeName, String> getQueueAttributes(String qName, QueueAttributeName... names) {
+        GetQueueAttributesRequest request = GetQueueAttributesRequest.builder()
                 .queueUrl(getQUrl(qName))
-                .maxNumberOfMessages(1)
-                .waitTimeSeconds(waitTime)
+                .attributeNames(names)
                 .build();
+        try {
+            return sqs.getQueueAttributes(request).attributes();
+        } catch (QueueDoesNotExistException ex) {
+            forgetQUrl(qName);
+            throw ex;
+        }
     }
 
     private static String createQByName(String queueName, Map<QueueAttributeName, String> attrMap) {
@@ -85,6 +213,7 @@ public class SQSUtils {
         }
         try {
             CreateQueueResponse create_result = sqs.createQueue(request);
+            qUrls.put(queueName, create_result.queueUrl());
             return create_result.queueUrl();
         } catch (QueueNameExistsException qExistsEx) {
             log.error("SQSUtils.createQByName(): queue with name: " + queueName + " already exists");
@@ -92,7 +221,9 @@ public class SQSUtils {
             log.error("SQSUtils.createQByName(): failed... " + ex.getMessage() + "\nsleeping 1 min and retrying");
             try {
                 Thread.sleep(60000);
-                return sqs.createQueue(request).queueUrl();
+                String qUrl = sqs.createQueue(request).queueUrl();
+                qUrls.put(queueName, qUrl);
+                return qUrl;
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -102,23 +233,89 @@ public class SQSUtils {
 
     /**
      * @param QUEUE_NAME
-     * @return this function return the Q url by its name.
+     * @return this function return the Q url by its name, from the cache when already resolved.
      */
     private static String getQUrl(String QUEUE_NAME) throws QueueDoesNotExistException {
+        String qUrl = qUrls.get(QUEUE_NAME);
+        if (qUrl != null)
+            return qUrl;
         GetQueueUrlRequest getQueueRequest = GetQueueUrlRequest.builder()
                 .queueName(QUEUE_NAME)
                 .build();
         //get url in order to send later
-        return sqs.getQueueUrl(getQueueRequest).queueUrl();
+        qUrl = sqs.getQueueUrl(getQueueRequest).queueUrl();
+        qUrls.put(QUEUE_NAME, qUrl);
+        return qUrl;
+    }
+
+    /**
+     * Drop a cached url, so the next call resolves (or recreates) the queue again.
+     */
+    private static void forgetQUrl(String qName) {
+        qUrls.remove(qName);
+    }
+
+    /**
+     * @param bodies at most MAX_BATCH_SIZE message bodies
+     * @return the bodies of the entries SQS failed to send
+     */
+    private static List<String> sendBatch(String queueUrl, List<String> bodies, int delaySeconds) {
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        Map<String, String> bodyById = new HashMap<>();
+        for (int i = 0; i < bodies.size(); i++) {
+            String id = String.valueOf(i);
+            bodyById.put(id, bodies.get(i));
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .messageBody(bodies.get(i))
+                    .delaySeconds(delaySeconds)
+                    .build());
+        }
+        SendMessageBatchResponse response = sqs.sendMessageBatch(SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+        List<String> failed = new ArrayList<>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            log.warn("SQSUtils.sendBatch(): entry failed... " + error.code() + " " + error.message());
+            failed.add(bodyById.get(error.id()));
+        }
+        return failed;
+    }
+
+    /**
+     * @param msgs at most MAX_BATCH_SIZE messages
+     * @return the messages SQS failed to delete
+     */
+    private static List<Message> deleteBatch(String queueUrl, List<Message> msgs) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+        Map<String, Message> msgById = new HashMap<>();
+        for (int i = 0; i < msgs.size(); i++) {
+            String id = String.valueOf(i);
+            msgById.put(id, msgs.get(i));
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .receiptHandle(msgs.get(i).receiptHandle())
+                    .build());
+        }
+        DeleteMessageBatchResponse response = sqs.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+        List<Message> failed = new ArrayList<>();
+        for (BatchResultErrorEntry error : response.failed()) {
+            log.warn("SQSUtils.deleteBatch(): entry failed... " + error.code() + " " + error.message());
+            failed.add(msgById.get(error.id()));
+        }
+        return failed;
     }
 
-    private static void putMessageInSqs(String queueUrl, String message) {
+    private static void putMessageInSqs(String queueUrl, String message, int delaySeconds) {
         SendMessageRequest send_msg_request = SendMessageRequest.builder()
                 .queueUrl(queueUrl)
                 .messageBody(message)
-                .delaySeconds(5)
+                .delaySeconds(delaySeconds)
                 .build();
-        //added for cloud reasons.
         sqs.sendMessage(send_msg_request);
     }
 }
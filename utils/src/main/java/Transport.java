@@ -0,0 +1,36 @@
+import java.nio.file.Paths;
+
+/**
+ * The queues, blob store and compute provisioner the whole system runs on.
+ * Selected with -Dtransport: "aws" (the default) for SQS, S3 and EC2, or "local" to run the local app,
+ * the manager and the workers inside a single process, with in-memory queues, blobs under
+ * -Dtransport.localDir and workers as threads.
+ */
+public class Transport {
+    private static final String TRANSPORT_PROPERTY = "transport";
+    private static final String LOCAL_DIR_PROPERTY = "transport.localDir";
+
+    private static final boolean local = "local".equalsIgnoreCase(System.getProperty(TRANSPORT_PROPERTY));
+    private static final QueueService queues = local ? new InMemoryQueueService() : new AwsQueueService();
+    private static final BlobStore blobs = local
+            ? new LocalBlobStore(Paths.get(System.getProperty(LOCAL_DIR_PROPERTY,
+            Paths.get(System.getProperty("java.io.tmpdir"), "dsp-blobs").toString())))
+            : new AwsBlobStore();
+    private static final ComputeProvisioner compute = local ? new LocalComputeProvisioner() : new AwsComputeProvisioner();
+
+    public static boolean isLocal() {
+        return local;
+    }
+
+    public static QueueService queues() {
+        return queues;
+    }
+
+    public static BlobStore blobs() {
+        return blobs;
+    }
+
+    public static ComputeProvisioner compute() {
+        return compute;
+    }
+}